@@ -20,11 +20,35 @@ java {
     }
 }
 
+// JMH benchmarks in src/jmh/java, run against the main classes
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+configurations {
+    named("jmhImplementation") {
+        extendsFrom(configurations.implementation.get())
+    }
+    named("jmhRuntimeOnly") {
+        extendsFrom(configurations.runtimeOnly.get())
+    }
+}
+
+val jmhVersion = "1.37"
+
 dependencies {
     implementation("net.imagej:imagej:2.16.0")
     implementation("net.imagej:imagej-legacy:2.0.1")
     implementation("net.imagej:ij:1.53k")
     implementation("com.github.wendykierp:JTransforms:3.1")
+
+    testImplementation("junit:junit:4.13.2")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
 }
 
 tasks.processResources {
@@ -37,7 +61,7 @@ tasks.processResources {
 
 tasks.jar {
     manifest {
-        attributes["Main-Class"] = "org.example.BlindDeconvolution"
+        attributes["Main-Class"] = "org.example.ECMADBatch"
     }
     archiveBaseName.set("DeconvolutionPlugin")
     duplicatesStrategy = DuplicatesStrategy.EXCLUDE
@@ -47,3 +71,35 @@ tasks.jar {
         include("plugins.config")
     }
 }
+
+/*
+ * Benchmarks. Every benchmark reports average time per operation, and the GC
+ * profiler adds the allocation per operation (gc.alloc.rate.norm).
+ *
+ *   ./gradlew jmh                               everything, results in build/reports/jmh/results.json
+ *   ./gradlew jmh -Pjmh.include=Transform       only benchmarks whose name matches the regex
+ *   ./gradlew jmh -Pjmh.params="size=4096;threads=1,8"
+ *                                               override @Param values, ';' between parameters
+ *   ./gradlew jmh -Pjmh.args="-f 1 -wi 1 -i 3"  extra JMH options
+ */
+val jmhResults = file(findProperty("jmh.results") ?: "build/reports/jmh/results.json")
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks with the GC profiler"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+
+    args(findProperty("jmh.include") ?: ".*")
+    args("-prof", "gc", "-rf", "json", "-rff", jmhResults.absolutePath)
+    (findProperty("jmh.params") as String?)?.split(';')?.filter { it.isNotBlank() }?.forEach {
+        args("-p", it.trim())
+    }
+    (findProperty("jmh.args") as String?)?.trim()?.split(Regex("\\s+"))?.filter { it.isNotEmpty() }?.let {
+        args(it)
+    }
+
+    doFirst {
+        jmhResults.parentFile.mkdirs()
+    }
+}
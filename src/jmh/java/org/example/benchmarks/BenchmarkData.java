@@ -0,0 +1,77 @@
+package org.example.benchmarks;
+
+import org.example.utils.ConvolutionPlanner;
+import org.example.utils.FloatImage;
+import org.example.utils.PSFUtils;
+import org.example.utils.ParallelScheduler;
+import org.example.utils.SeparableConvolver;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks; fixed seeds keep them identical across runs
+ */
+final class BenchmarkData {
+
+    private static final long SEED = 42;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Gaussian PSF whose support covers about three sigma either side
+     */
+    static FloatImage gaussian(int size) {
+        return PSFUtils.createGaussianPSF(size, size, Math.max(0.5f, size / 6f));
+    }
+
+    /**
+     * Rectangles of random brightness blurred by psf plus a little noise, roughly in [0, 1]
+     */
+    static FloatImage scene(int width, int height, FloatImage psf) {
+        Random random = new Random(SEED);
+        FloatImage sharp = new FloatImage(width, height);
+        int blocks = width * height / 128;
+        for (int n = 0; n < blocks; n++) {
+            int bw = 1 + random.nextInt(16), bh = 1 + random.nextInt(16);
+            int x0 = random.nextInt(Math.max(1, width - bw)), y0 = random.nextInt(Math.max(1, height - bh));
+            float value = 0.1f + 0.8f * random.nextFloat();
+            sharp.view(x0, y0, Math.min(bw, width - x0), Math.min(bh, height - y0)).fill(value);
+        }
+
+        FloatImage blurred = ConvolutionPlanner.convolve(sharp, psf, SeparableConvolver.Boundary.CLAMP);
+        float[] data = blurred.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Math.max(0f, data[i] + 0.01f * (float) random.nextGaussian());
+        }
+        return blurred;
+    }
+
+    /**
+     * Resizes the shared worker pool; the thread parameter of every benchmark goes through here
+     */
+    static void useThreads(int threads) {
+        if (ParallelScheduler.getParallelism() != threads) {
+            ParallelScheduler.setParallelism(threads);
+        }
+    }
+
+    /**
+     * IJ.log prints to stdout when ImageJ is not running; returns the stream to restore afterwards
+     */
+    static PrintStream silenceLog() {
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        return original;
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.benchmarks;
+
+import org.example.utils.FloatImage;
+import org.example.utils.MatrixUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spatial convolution through the planner, which picks direct, separable or
+ * (tiled) FFT per image and kernel size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvolutionBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    @Param({"5", "15", "31"})
+    public int kernelSize;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private FloatImage image;
+    private FloatImage kernel;
+
+    @Setup
+    public void setup() {
+        BenchmarkData.useThreads(threads);
+        kernel = BenchmarkData.gaussian(kernelSize);
+        image = BenchmarkData.scene(size, size, kernel);
+    }
+
+    @Benchmark
+    public FloatImage convolve() {
+        return MatrixUtils.convolve(image, kernel);
+    }
+}
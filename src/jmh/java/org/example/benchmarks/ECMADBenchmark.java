@@ -0,0 +1,100 @@
+package org.example.benchmarks;
+
+import org.example.DeconvolutionProgressListener;
+import org.example.core.BlindDeconvolver;
+import org.example.core.ECMADProcessor;
+import org.example.core.EntropyController;
+import org.example.core.TVRegularizer;
+import org.example.core.WienerDeconvolver;
+import org.example.utils.FloatImage;
+import org.example.utils.PSFUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full ECMADProcessor.process call as ECMADBatch makes it, cold start every
+ * time. PSFs of 9 and 21 pixels exercise the direct and the spectral PSF
+ * update. One processor is reused across operations, the way the batch driver
+ * reuses one per channel, so its workspaces are warm after the first call.
+ * 4096 is left out by default; add it with -Pjmh.params="size=4096".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ECMADBenchmark {
+
+    private static final int MAX_ITERATIONS = 20;
+    private static final float ENTROPY_THRESHOLD = 7.0f;
+    private static final int FULL_RESOLUTION_ITERATIONS = 2;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"9", "21"})
+    public int kernelSize;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"1", "3"})
+    public int pyramidLevels;
+
+    @Param({"EXPLICIT", "PRIMAL_DUAL"})
+    public TVRegularizer.Mode tvMode;
+
+    private FloatImage image;
+    private FloatImage initialPSF;
+    private ECMADProcessor processor;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() {
+        BenchmarkData.useThreads(threads);
+        stdout = BenchmarkData.silenceLog();
+        image = BenchmarkData.scene(size, size, BenchmarkData.gaussian(kernelSize));
+        // Start from a narrower guess so the PSF update has work to do
+        initialPSF = PSFUtils.createGaussianPSF(kernelSize, kernelSize, kernelSize / 12f);
+
+        TVRegularizer tv = new TVRegularizer();
+        tv.setMode(tvMode);
+        processor = new ECMADProcessor(new WienerDeconvolver(), tv, new BlindDeconvolver(),
+                new EntropyController(), MAX_ITERATIONS, ENTROPY_THRESHOLD);
+        processor.setPyramid(pyramidLevels, FULL_RESOLUTION_ITERATIONS);
+        processor.setProgressListener(new DeconvolutionProgressListener() {
+            @Override
+            public void onIterationStart(int iteration) {
+            }
+
+            @Override
+            public void onIterationComplete(int iteration, float error) {
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreLog() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public FloatImage process() {
+        return processor.process(image, initialPSF);
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.benchmarks;
+
+import org.example.core.KernelConvolution;
+import org.example.core.RichardsonLucy;
+import org.example.utils.ConvolutionPlanner;
+import org.example.utils.FloatImage;
+import org.example.utils.SeparableConvolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed number of Richardson-Lucy iterations with each of the convolution
+ * variants the RL plugins use: the planner's choice (BlindDeconvolution1),
+ * whole-frame FFT (BlindDeconvolution2) and separable (BlindDeconvolution3).
+ * 4096 is left out by default because one operation takes many seconds;
+ * add it with -Pjmh.params="size=4096".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RichardsonLucyBenchmark {
+
+    private static final int ITERATIONS = 10;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"5", "15", "31"})
+    public int kernelSize;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"PLANNED", "FFT", "SEPARABLE"})
+    public String variant;
+
+    @Param({"false", "true"})
+    public boolean accelerated;
+
+    private FloatImage observed;
+    private FloatImage estimate;
+    private RichardsonLucy engine;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() {
+        BenchmarkData.useThreads(threads);
+        stdout = BenchmarkData.silenceLog();
+        FloatImage kernel = BenchmarkData.gaussian(kernelSize);
+        observed = BenchmarkData.scene(size, size, kernel);
+        estimate = new FloatImage(size, size);
+
+        ConvolutionPlanner.Strategy strategy = variant.equals("PLANNED") ? null
+                : ConvolutionPlanner.Strategy.valueOf(variant);
+        engine = new RichardsonLucy(new KernelConvolution(kernel, SeparableConvolver.Boundary.CLAMP,
+                size, size, strategy));
+        engine.setAccelerated(accelerated);
+    }
+
+    @TearDown(Level.Trial)
+    public void restoreLog() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public FloatImage deconvolve() {
+        estimate.copyFrom(observed);
+        engine.deconvolve(observed, estimate, ITERATIONS);
+        return estimate;
+    }
+}
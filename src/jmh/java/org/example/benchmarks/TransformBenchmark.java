@@ -0,0 +1,126 @@
+package org.example.benchmarks;
+
+import org.example.core.EntropyController;
+import org.example.core.TVRegularizer;
+import org.example.core.WienerDeconvolver;
+import org.example.utils.FFTUtils;
+import org.example.utils.FloatImage;
+import org.example.utils.OTF;
+import org.example.utils.Spectrum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole-frame kernels of an ECMAD iteration whose cost does not depend on
+ * the PSF size: transforms, Wiener filtering, TV smoothing and entropy. Wiener
+ * filtering is measured both through the allocating call and through the
+ * overload ECMAD uses, which writes into preallocated buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    private static final int PSF_SIZE = 9;
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private FloatImage image;
+    private FloatImage result;
+    private OTF otf;
+    private Spectrum spectrum;
+    private Spectrum work;
+    private WienerDeconvolver wiener;
+    private TVRegularizer explicitTV;
+    private TVRegularizer primalDualTV;
+    private EntropyController entropy;
+    private EntropyController sampledEntropy;
+
+    @Setup
+    public void setup() {
+        BenchmarkData.useThreads(threads);
+        FloatImage psf = BenchmarkData.gaussian(PSF_SIZE);
+        image = BenchmarkData.scene(size, size, psf);
+        result = new FloatImage(size, size);
+        otf = OTF.forImage(psf, size, size);
+        spectrum = new Spectrum(otf.getWidth(), otf.getHeight());
+        work = new Spectrum(otf.getWidth(), otf.getHeight());
+        FFTUtils.fft2D(image, spectrum);
+
+        wiener = new WienerDeconvolver();
+        explicitTV = new TVRegularizer();
+        primalDualTV = new TVRegularizer();
+        primalDualTV.setMode(TVRegularizer.Mode.PRIMAL_DUAL);
+        entropy = new EntropyController();
+        sampledEntropy = new EntropyController();
+        sampledEntropy.setSamplingStride(4);
+    }
+
+    @Benchmark
+    public Spectrum fft2D() {
+        FFTUtils.fft2D(image, work);
+        return work;
+    }
+
+    @Benchmark
+    public FloatImage ifft2D() {
+        FFTUtils.ifft2D(spectrum, result);
+        return result;
+    }
+
+    @Benchmark
+    public FloatImage wienerDeconvolve() {
+        return wiener.deconvolve(image, otf);
+    }
+
+    @Benchmark
+    public FloatImage wienerDeconvolveInto() {
+        wiener.deconvolve(spectrum, otf.getTransfer(), work, result);
+        return result;
+    }
+
+    @Benchmark
+    public FloatImage tvExplicit() {
+        explicitTV.denoise(image, 1f, result);
+        return result;
+    }
+
+    @Benchmark
+    public FloatImage tvPrimalDual() {
+        primalDualTV.denoise(image, 1f, result);
+        return result;
+    }
+
+    @Benchmark
+    public float entropy() {
+        return entropy.computeEntropy(image);
+    }
+
+    @Benchmark
+    public float entropySampled() {
+        return sampledEntropy.computeEntropy(image);
+    }
+
+    @Benchmark
+    public EntropyController.Measurement metrics() {
+        return entropy.measure(image, result, image, image);
+    }
+}
@@ -1,6 +1,15 @@
 package org.example;
 
+import org.example.core.IterationMetrics;
+
 public interface DeconvolutionProgressListener {
     void onIterationStart(int iteration);
     void onIterationComplete(int iteration, float error);
-}
\ No newline at end of file
+
+    /**
+     * Called after onIterationComplete with every metric of the iteration. The
+     * processor reuses the object on its next process call.
+     */
+    default void onIterationMetrics(IterationMetrics metrics) {
+    }
+}
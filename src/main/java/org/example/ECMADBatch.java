@@ -0,0 +1,293 @@
+package org.example;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import ij.process.ImageProcessor;
+import org.example.core.*;
+import org.example.utils.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Headless command-line driver. Streams a directory of images or a multi-page
+ * TIFF through the ECMAD pipeline frame by frame, overlapping reading,
+ * deconvolution and writing, and writes one TIFF per frame.
+ *
+ * Usage: ECMADBatch [options] input output-dir
+ *   --in-flight N    frames held between read and write (default 3)
+ *   --threads N      worker threads for the deconvolution stages
+ *   --iterations N   maximum ECMAD iterations per frame (default 20)
+ *   --sigma S        sigma of the initial Gaussian PSF (default 2)
+ *   --warm-start     seed each frame with the previous frame's PSF
+ *   --pyramid L      estimate the PSF coarse to fine over L levels (default 1, off)
+ *   --tv MODE        TV solver: explicit (default) or primal-dual
+ *   --calibrate      measure convolution costs before choosing strategies
+ */
+public class ECMADBatch {
+
+    // Iterations at full resolution when the PSF is estimated on a pyramid
+    private static final int FULL_RESOLUTION_ITERATIONS = 2;
+
+    private static final String[] IMAGE_SUFFIXES = {".tif", ".tiff", ".png", ".jpg", ".jpeg", ".gif", ".bmp"};
+
+    private static class Frame {
+        final String name;
+        final int index;
+        final ImageProcessor input;
+        ImageProcessor output;
+        long readNanos;
+        long processNanos;
+        int iterations;
+
+        Frame(String name, int index, ImageProcessor input, long readNanos) {
+            this.name = name;
+            this.index = index;
+            this.input = input;
+            this.readNanos = readNanos;
+        }
+    }
+
+    /**
+     * Reads the frames of each input file in turn. TIFFs are opened as virtual
+     * stacks so pages are decoded one at a time.
+     */
+    private static class FrameReader implements FramePipeline.Source<Frame> {
+        private final List<File> files;
+        private int fileIndex = -1;
+        private ImageStack stack;
+        private String baseName;
+        private int slice;
+        private int frameIndex;
+
+        FrameReader(List<File> files) {
+            this.files = files;
+        }
+
+        @Override
+        public Frame next() throws IOException {
+            while (stack == null || slice >= stack.getSize()) {
+                if (++fileIndex >= files.size()) {
+                    return null;
+                }
+                open(files.get(fileIndex));
+            }
+
+            long start = System.nanoTime();
+            slice++;
+            ImageProcessor ip = stack.getProcessor(slice);
+            String name = stack.getSize() == 1
+                    ? baseName + "_ecmad"
+                    : String.format(Locale.ROOT, "%s_ecmad_%04d", baseName, slice);
+            return new Frame(name, ++frameIndex, ip, System.nanoTime() - start);
+        }
+
+        private void open(File file) throws IOException {
+            String path = file.getPath();
+            String lower = path.toLowerCase(Locale.ROOT);
+            ImagePlus imp;
+            if (lower.endsWith(".tif") || lower.endsWith(".tiff")) {
+                imp = IJ.openVirtual(path);
+            } else {
+                // IJ.openImage initializes the ImageJ menus, which fails without a display
+                BufferedImage image = ImageIO.read(file);
+                imp = image == null ? null : new ImagePlus(file.getName(), image);
+            }
+            if (imp == null) {
+                throw new IOException("Cannot open " + path);
+            }
+            String fileName = file.getName();
+            int dot = fileName.lastIndexOf('.');
+            baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+            stack = imp.getStack();
+            slice = 0;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        int inFlight = 3;
+        int iterations = 20;
+        float sigma = 2.0f;
+        boolean warmStart = false;
+        int pyramidLevels = 1;
+        TVRegularizer.Mode tvMode = TVRegularizer.Mode.EXPLICIT;
+        boolean calibrate = false;
+        List<String> paths = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--in-flight":
+                        inFlight = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threads":
+                        ParallelScheduler.setParallelism(Integer.parseInt(args[++i]));
+                        break;
+                    case "--iterations":
+                        iterations = Integer.parseInt(args[++i]);
+                        break;
+                    case "--sigma":
+                        sigma = Float.parseFloat(args[++i]);
+                        break;
+                    case "--warm-start":
+                        warmStart = true;
+                        break;
+                    case "--pyramid":
+                        pyramidLevels = Integer.parseInt(args[++i]);
+                        break;
+                    case "--tv":
+                        tvMode = TVRegularizer.Mode.valueOf(args[++i].toUpperCase(Locale.ROOT).replace('-', '_'));
+                        break;
+                    case "--calibrate":
+                        calibrate = true;
+                        break;
+                    default:
+                        paths.add(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            usage("Invalid arguments: " + e.getMessage());
+            return;
+        }
+        if (paths.size() != 2) {
+            usage(null);
+            return;
+        }
+
+        File input = new File(paths.get(0));
+        File outputDir = new File(paths.get(1));
+        List<File> files = listInputs(input);
+        if (files.isEmpty()) {
+            usage("No images found at " + input);
+            return;
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            usage("Cannot create output directory " + outputDir);
+            return;
+        }
+
+        try {
+            if (calibrate) {
+                ConvolutionPlanner.calibrateOnce();
+            }
+            run(files, outputDir, inFlight, iterations, pyramidLevels, tvMode, sigma, warmStart);
+        } catch (Exception e) {
+            System.err.println("ECMAD: Batch failed: " + e);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void run(List<File> files, File outputDir, int inFlight, int iterations, int pyramidLevels,
+                            TVRegularizer.Mode tvMode, float sigma, boolean warmStart) throws Exception {
+        FrameDeconvolver deconvolver = new FrameDeconvolver(
+                () -> createProcessor(iterations, pyramidLevels, tvMode), sigma);
+        deconvolver.setWarmStart(warmStart);
+        FramePipeline<Frame> pipeline = new FramePipeline<>(inFlight);
+
+        System.out.println("ECMAD: " + files.size() + " file(s), " + inFlight + " frames in flight, "
+                + ParallelScheduler.getParallelism() + " threads");
+
+        long[] totals = new long[2]; // frames, pixels
+        long start = System.nanoTime();
+
+        pipeline.run(new FrameReader(files), frame -> {
+            long t0 = System.nanoTime();
+            frame.output = deconvolver.deconvolve(frame.input);
+            frame.processNanos = System.nanoTime() - t0;
+            frame.iterations = deconvolver.getIterationsRun();
+            return frame;
+        }, frame -> {
+            long t0 = System.nanoTime();
+            File out = new File(outputDir, frame.name + ".tif");
+            if (!new FileSaver(new ImagePlus(frame.name, frame.output)).saveAsTiff(out.getPath())) {
+                throw new IOException("Cannot write " + out);
+            }
+            long writeNanos = System.nanoTime() - t0;
+
+            long pixels = (long) frame.input.getWidth() * frame.input.getHeight();
+            totals[0]++;
+            totals[1] += pixels;
+            System.out.println(String.format(Locale.ROOT,
+                    "ECMAD: frame %d %s: read %.1f ms, process %.1f ms (%d iterations), write %.1f ms, %.2f Mpx/s",
+                    frame.index, frame.name, frame.readNanos / 1e6, frame.processNanos / 1e6, frame.iterations,
+                    writeNanos / 1e6, pixels / (frame.processNanos / 1e3)));
+        });
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "ECMAD: %d frames in %.2f s, %.2f frames/s, %.2f Mpx/s",
+                totals[0], seconds, totals[0] / seconds, totals[1] / seconds / 1e6));
+    }
+
+    private static List<File> listInputs(File input) {
+        List<File> files = new ArrayList<>();
+        if (input.isDirectory()) {
+            File[] entries = input.listFiles();
+            if (entries != null) {
+                Arrays.sort(entries);
+                for (File f : entries) {
+                    if (f.isFile() && isImage(f.getName())) {
+                        files.add(f);
+                    }
+                }
+            }
+        } else if (input.isFile()) {
+            files.add(input);
+        }
+        return files;
+    }
+
+    private static boolean isImage(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String suffix : IMAGE_SUFFIXES) {
+            if (lower.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ECMADProcessor createProcessor(int iterations, int pyramidLevels, TVRegularizer.Mode tvMode) {
+        TVRegularizer tv = new TVRegularizer();
+        tv.setMode(tvMode);
+        ECMADProcessor processor = new ECMADProcessor(
+                new WienerDeconvolver(), tv, new BlindDeconvolver(), new EntropyController(),
+                iterations,
+                7.0f // entropy threshold
+        );
+        processor.setPyramid(pyramidLevels, FULL_RESOLUTION_ITERATIONS);
+
+        // Per-frame timings are reported by the driver instead of per iteration
+        processor.setProgressListener(new DeconvolutionProgressListener() {
+            @Override
+            public void onIterationStart(int iteration) {
+            }
+
+            @Override
+            public void onIterationComplete(int iteration, float error) {
+            }
+        });
+        return processor;
+    }
+
+    private static void usage(String error) {
+        if (error != null) {
+            System.err.println("ECMAD: " + error);
+        }
+        System.err.println("Usage: ECMADBatch [--in-flight N] [--threads N] [--iterations N] [--sigma S] [--warm-start]"
+                + " [--pyramid L] [--tv explicit|primal-dual] [--calibrate] input output-dir");
+        System.err.println("  input is an image file, a multi-page TIFF or a directory of images");
+        System.exit(2);
+    }
+}
@@ -7,6 +7,13 @@ import org.example.utils.*;
 
 public class ECMADMain implements PlugInFilter {
 
+    private static final float PSF_SIGMA = 2.0f;
+    // Stack slices held between decoding and encoding
+    private static final int SLICES_IN_FLIGHT = 3;
+    // Coarse-to-fine PSF estimation: pyramid levels and iterations left for full resolution
+    private static final int PYRAMID_LEVELS = 3;
+    private static final int FULL_RESOLUTION_ITERATIONS = 2;
+
     private ImagePlus imp;
 
     @Override
@@ -21,97 +28,29 @@ public class ECMADMain implements PlugInFilter {
             IJ.showStatus("ECMAD: Starting deconvolution...");
             IJ.log("ECMAD: Preparing data...");
 
-            boolean isColor = (ip instanceof ColorProcessor);
-            ImageProcessor[] channels = new ImageProcessor[isColor ? 3 : 1];
-
-            if (isColor) {
-                // For color images, manually extract RGB channels
-                ColorProcessor cp = (ColorProcessor) ip.duplicate();
-                byte[] R = new byte[cp.getWidth() * cp.getHeight()];
-                byte[] G = new byte[cp.getWidth() * cp.getHeight()];
-                byte[] B = new byte[cp.getWidth() * cp.getHeight()];
-
-                cp.getRGB(R, G, B);
-
-                channels[0] = new ByteProcessor(cp.getWidth(), cp.getHeight(), R, null);
-                channels[1] = new ByteProcessor(cp.getWidth(), cp.getHeight(), G, null);
-                channels[2] = new ByteProcessor(cp.getWidth(), cp.getHeight(), B, null);
-
-                IJ.log("ECMAD: RGB channels extracted");
-            } else {
-                // For grayscale, just use the original
-                channels[0] = ip.duplicate();
-            }
-
-            int width = ip.getWidth();
-            int height = ip.getHeight();
-
-            IJ.log("ECMAD: Creating initial PSF...");
-            float[][] initialPSF = PSFUtils.createGaussianPSF(width, height, 2.0f);
-
-            WienerDeconvolver wiener = new WienerDeconvolver();
-            TVRegularizer tv = new TVRegularizer();
-            BlindDeconvolver blind = new BlindDeconvolver();
-            EntropyController entropyCtrl = new EntropyController();
-
-            IJ.log("ECMAD: Setting up processor...");
-            ECMADProcessor processor = new ECMADProcessor(
-                    wiener, tv, blind, entropyCtrl,
-                    20, // max iterations
-                    7.0f // entropy threshold
-            );
-
-            // Add progress listener
-            processor.setProgressListener(new DeconvolutionProgressListener() {
-                @Override
-                public void onIterationStart(int iteration) {
-                    IJ.showStatus("ECMAD: Iteration " + iteration);
-                    IJ.log("ECMAD: Starting iteration " + iteration);
-                }
-
-                @Override
-                public void onIterationComplete(int iteration, float error) {
-                    IJ.log("ECMAD: Completed iteration " + iteration + " (error: " + error + ")");
+            if (imp != null && imp.getStackSize() > 1) {
+                // Whole stacks and hyperstacks are streamed slice by slice with shared engine objects
+                IJ.log("ECMAD: Processing " + imp.getStackSize() + " slices...");
+                // Consecutive slices of a channel share their blur; drift detection restarts cold on
+                // scene changes. Hyperstacks interleave their channels, so each keeps its own PSF state.
+                FrameDeconvolver[] deconvolvers = new FrameDeconvolver[imp.getNChannels()];
+                for (int c = 0; c < deconvolvers.length; c++) {
+                    deconvolvers[c] = new FrameDeconvolver(ECMADMain::createProcessor, PSF_SIGMA);
+                    deconvolvers[c].setWarmStart(true);
                 }
-            });
-
-            ImageProcessor[] resultChannels = new ImageProcessor[channels.length];
-
-            // Process each channel
-            for (int c = 0; c < channels.length; c++) {
-                IJ.log("ECMAD: Processing channel " + (c+1) + " of " + channels.length);
-
-                // Convert channel to float array
-                float[][] inputChannel = ImageUtils.toFloatArray(channels[c]);
-
-                // Process the channel
-                IJ.log("ECMAD: Beginning deconvolution process for channel " + (c+1) + "...");
-                float[][] resultChannel = processor.process(inputChannel, initialPSF);
+                ImageStack resultStack = new StackDeconvolver(deconvolvers, SLICES_IN_FLIGHT).process(imp.getStack());
 
-                // Normalize and convert back to ImageProcessor
-                ImageUtils.normalize(resultChannel);
-                resultChannels[c] = ImageUtils.toImageProcessor(resultChannel);
-            }
-
-            ImageProcessor output;
-
-            if (isColor) {
-                // For color images, merge the RGB channels
-                IJ.log("ECMAD: Merging RGB channels...");
-                byte[] R = (byte[])resultChannels[0].convertToByte(false).getPixels();
-                byte[] G = (byte[])resultChannels[1].convertToByte(false).getPixels();
-                byte[] B = (byte[])resultChannels[2].convertToByte(false).getPixels();
-
-                ColorProcessor colorOutput = new ColorProcessor(width, height);
-                colorOutput.setRGB(R, G, B);
-                output = colorOutput;
+                ImagePlus result = new ImagePlus("ECMAD Result", resultStack);
+                result.setDimensions(imp.getNChannels(), imp.getNSlices(), imp.getNFrames());
+                result.setOpenAsHyperStack(imp.isHyperStack());
+                result.show();
             } else {
-                // For grayscale, just use the processed channel
-                output = resultChannels[0];
-            }
+                FrameDeconvolver deconvolver = new FrameDeconvolver(ECMADMain::createProcessor, PSF_SIGMA);
+                ImageProcessor output = deconvolver.deconvolve(ip);
 
-            // Display the result
-            new ImagePlus("ECMAD Result", output).show();
+                // Display the result
+                new ImagePlus("ECMAD Result", output).show();
+            }
 
             IJ.log("ECMAD: Process completed successfully.");
             IJ.showStatus("ECMAD: Done");
@@ -135,4 +74,38 @@ public class ECMADMain implements PlugInFilter {
             }
         }
     }
+
+    private static ECMADProcessor createProcessor() {
+        WienerDeconvolver wiener = new WienerDeconvolver();
+        TVRegularizer tv = new TVRegularizer();
+        BlindDeconvolver blind = new BlindDeconvolver();
+        EntropyController entropyCtrl = new EntropyController();
+
+        ECMADProcessor processor = new ECMADProcessor(
+                wiener, tv, blind, entropyCtrl,
+                20, // max iterations
+                7.0f // entropy threshold
+        );
+        processor.setPyramid(PYRAMID_LEVELS, FULL_RESOLUTION_ITERATIONS);
+
+        // Add progress listener
+        processor.setProgressListener(new DeconvolutionProgressListener() {
+            @Override
+            public void onIterationStart(int iteration) {
+                IJ.showStatus("ECMAD: Iteration " + iteration);
+                IJ.log("ECMAD: Starting iteration " + iteration);
+            }
+
+            @Override
+            public void onIterationComplete(int iteration, float error) {
+                IJ.log("ECMAD: Completed iteration " + iteration + " (error: " + error + ")");
+            }
+
+            @Override
+            public void onIterationMetrics(IterationMetrics metrics) {
+                IJ.log("ECMAD: Iteration " + metrics.getIteration() + ": " + metrics);
+            }
+        });
+        return processor;
+    }
 }
\ No newline at end of file
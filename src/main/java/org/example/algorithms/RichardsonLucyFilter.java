@@ -0,0 +1,139 @@
+package org.example.algorithms;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import org.example.core.BlindRichardsonLucy;
+import org.example.core.KernelConvolution;
+import org.example.core.RichardsonLucy;
+import org.example.utils.ConvolutionPlanner;
+import org.example.utils.FloatImage;
+import org.example.utils.ProcessorBridge;
+import org.example.utils.SeparableConvolver;
+
+/**
+ * Shared front-end of the Richardson-Lucy plugins: reads the PSF size,
+ * iteration limit and stopping tolerance and shows the result as an RGB
+ * image. Starting from a uniform PSF, the kernel is estimated by blind RL on
+ * the luminance; with estimation off, the uniform PSF is used as it is.
+ * Subclasses choose the convolution strategy and whether the colour channels
+ * are deconvolved separately with the kernel or the luminance is used alone.
+ */
+abstract class RichardsonLucyFilter implements PlugInFilter {
+
+    // 8-bit channel levels; estimates are clamped to this range
+    private static final float MAX_LEVEL = 255f;
+
+    private final String dialogTitle;
+    private final String outputTitle;
+    private final ConvolutionPlanner.Strategy strategy;
+    private final boolean perChannel;
+
+    private int psfSize = 5;
+    private int numIter = 50;
+    private boolean accelerated = true;
+    private double tolerance = 1e-4;
+    private boolean estimatePSF = true;
+
+    /**
+     * @param strategy convolution strategy, or null to let the planner choose
+     * @param perChannel deconvolve red, green and blue separately instead of their mean
+     */
+    RichardsonLucyFilter(String dialogTitle, String outputTitle, ConvolutionPlanner.Strategy strategy,
+                         boolean perChannel) {
+        this.dialogTitle = dialogTitle;
+        this.outputTitle = outputTitle;
+        this.strategy = strategy;
+        this.perChannel = perChannel;
+    }
+
+    public int setup(String arg, ImagePlus imp) {
+        return DOES_RGB;
+    }
+
+    public void run(ImageProcessor ip) {
+        if (!showDialog()) return;
+
+        int width = ip.getWidth();
+        int height = ip.getHeight();
+        FloatImage[] channels = ProcessorBridge.toChannels(ip);
+        FloatImage gray = estimatePSF || !perChannel ? luminance(channels) : null;
+
+        FloatImage psf = new FloatImage(psfSize, psfSize);
+        psf.fill(1f / (psfSize * psfSize));
+        ColorProcessor cp = new ColorProcessor(width, height);
+
+        if (estimatePSF) {
+            // The kernel is estimated once on the luminance and shared by the colour channels
+            BlindRichardsonLucy blind = new BlindRichardsonLucy();
+            blind.setBounds(0f, MAX_LEVEL);
+            blind.setTolerance((float) tolerance);
+            blind.setSeparable(strategy == ConvolutionPlanner.Strategy.SEPARABLE);
+            FloatImage result = blind.deconvolve(gray, psf, numIter);
+            IJ.log("RL: Blind deconvolution stopped after " + blind.getIterationsRun() + " iterations"
+                    + " (change " + blind.getLastChange() + ")");
+            new ImagePlus("Estimated PSF", psf.toFloatProcessor()).show();
+
+            if (!perChannel) {
+                writeGray(result, cp);
+                new ImagePlus(outputTitle, cp).show();
+                return;
+            }
+        }
+
+        RichardsonLucy engine = new RichardsonLucy(
+                new KernelConvolution(psf, SeparableConvolver.Boundary.CLAMP, width, height, strategy));
+        engine.setBounds(0f, MAX_LEVEL);
+        engine.setAccelerated(accelerated);
+        engine.setTolerance((float) tolerance);
+
+        FloatImage[] inputs = perChannel ? channels : new FloatImage[]{gray};
+        for (int c = 0; c < inputs.length; c++) {
+            FloatImage result = engine.deconvolve(inputs[c], numIter);
+            IJ.log("RL: Channel " + (c + 1) + " stopped after " + engine.getIterationsRun() + " iterations"
+                    + " (change " + engine.getLastChange() + ", " + engine.getRestarts() + " restarts)");
+            if (perChannel) {
+                ProcessorBridge.writeScaled(result, cp, c, 0f, 1f / MAX_LEVEL);
+            } else {
+                writeGray(result, cp);
+            }
+        }
+        new ImagePlus(outputTitle, cp).show();
+    }
+
+    private boolean showDialog() {
+        GenericDialog gd = new GenericDialog(dialogTitle);
+        gd.addNumericField("PSF Size", psfSize, 0);
+        gd.addNumericField("Iterations", numIter, 0);
+        gd.addNumericField("Tolerance", tolerance, 5);
+        gd.addCheckbox("Accelerate", accelerated);
+        gd.addCheckbox("Estimate PSF", estimatePSF);
+        gd.showDialog();
+        if (gd.wasCanceled()) return false;
+        psfSize = (int) gd.getNextNumber();
+        numIter = (int) gd.getNextNumber();
+        tolerance = gd.getNextNumber();
+        accelerated = gd.getNextBoolean();
+        estimatePSF = gd.getNextBoolean();
+        return true;
+    }
+
+    private static void writeGray(FloatImage result, ColorProcessor cp) {
+        for (int rgb = 0; rgb < 3; rgb++) {
+            ProcessorBridge.writeScaled(result, cp, rgb, 0f, 1f / MAX_LEVEL);
+        }
+    }
+
+    private static FloatImage luminance(FloatImage[] rgb) {
+        FloatImage gray = new FloatImage(rgb[0].getWidth(), rgb[0].getHeight());
+        float[] out = gray.getData();
+        float[] r = rgb[0].getData(), g = rgb[1].getData(), b = rgb[2].getData();
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (r[i] + g[i] + b[i]) / 3f;
+        }
+        return gray;
+    }
+}
@@ -1,9 +1,23 @@
 package org.example.core;
 
+import org.example.utils.ConvolutionPlanner;
+import org.example.utils.FFTUtils;
+import org.example.utils.FloatImage;
 import org.example.utils.MatrixUtils;
+import org.example.utils.SeparableConvolver;
+import org.example.utils.Spectrum;
 
+/**
+ * Fits the PSF to the observed image by projected gradient descent on the
+ * squared residual, with the estimate held fixed. A step that raises the
+ * residual is taken again from the kernel before it at half the rate, so the
+ * steps stay stable at any image size, and with it at every pyramid level.
+ */
 public class BlindDeconvolver {
 
+    // Kernels with more taps than DIRECT_CUTOFF x DIRECT_CUTOFF are updated in the frequency domain
+    private static final int DIRECT_CUTOFF = 15;
+
     private float learningRate = 0.01f;
     private int iterations = 5;
 
@@ -15,26 +29,136 @@ public class BlindDeconvolver {
         this.iterations = iters;
     }
 
-    public float[][] updatePSF(float[][] image, float[][] psf) {
-        int height = psf.length;
-        int width = psf[0].length;
-        float[][] updatedPSF = MatrixUtils.deepCopy(psf);
+    public FloatImage updatePSF(FloatImage image, FloatImage psf) {
+        return updatePSF(image, image, psf);
+    }
+
+    /**
+     * Refines the PSF so that estimate convolved with it matches the observed image.
+     * @param observed the blurred input image
+     * @param estimate the current latent image estimate
+     * @param psf the current PSF, not modified
+     * @return the updated, non-negative PSF normalized to sum 1
+     */
+    public FloatImage updatePSF(FloatImage observed, FloatImage estimate, FloatImage psf) {
+        FloatImage updatedPSF = MatrixUtils.deepCopy(psf);
+        if (isSpectral(psf)) {
+            Spectrum estimateFFT = FFTUtils.fft2D(estimate);
+            Spectrum observedFFT = FFTUtils.fft2D(observed, estimateFFT.getWidth(), estimateFFT.getHeight());
+            descendSpectral(estimateFFT, observedFFT, updatedPSF,
+                    new Spectrum(estimateFFT.getWidth(), estimateFFT.getHeight()),
+                    new FloatImage(estimateFFT.getWidth(), estimateFFT.getHeight()),
+                    new FloatImage(psf.getWidth(), psf.getHeight()));
+        } else {
+            ConvolutionPlanner.Plan plan = ConvolutionPlanner.plan(estimate.getWidth(), estimate.getHeight(),
+                    psf.getWidth(), psf.getHeight());
+            descendDirect(plan, observed, estimate, updatedPSF,
+                    new FloatImage(estimate.getWidth(), estimate.getHeight()),
+                    new FloatImage(psf.getWidth(), psf.getHeight()),
+                    new FloatImage(psf.getWidth(), psf.getHeight()));
+        }
+        return updatedPSF;
+    }
+
+    /**
+     * Same as updatePSF, writing into result and taking every buffer from the workspace
+     * @param observed the blurred input image, already loaded into the workspace
+     * @param estimate the current latent image estimate
+     * @param psf the current PSF, not modified
+     * @param result receives the updated PSF; same size as psf and distinct from it
+     * @param workspace buffers sized for observed and psf
+     */
+    public void updatePSF(FloatImage observed, FloatImage estimate, FloatImage psf, FloatImage result,
+                          ECMADWorkspace workspace) {
+        result.copyFrom(psf);
+        if (isSpectral(psf)) {
+            FFTUtils.fft2D(estimate, workspace.getEstimateSpectrum());
+            descendSpectral(workspace.getEstimateSpectrum(), workspace.getObservedSpectrum(), result,
+                    workspace.getWork(), workspace.getGradient(), workspace.getAcceptedKernel());
+        } else {
+            descendDirect(workspace.getConvolutionPlan(), observed, estimate, result, workspace.getBlurred(),
+                    workspace.getKernelGradient(), workspace.getAcceptedKernel());
+        }
+    }
+
+    private boolean isSpectral(FloatImage psf) {
+        return psf.getWidth() * psf.getHeight() > DIRECT_CUTOFF * DIRECT_CUTOFF;
+    }
+
+    // Gradient steps on the kernel in place with blurred, gradient and accepted as scratch; plan fits its shape
+    private void descendDirect(ConvolutionPlanner.Plan plan, FloatImage observed, FloatImage estimate,
+                               FloatImage kernel, FloatImage blurred, FloatImage gradient, FloatImage accepted) {
+        float rate = learningRate;
+        double acceptedLoss = Double.MAX_VALUE;
+
+        for (int iter = 0; iter < iterations; iter++) {
+            ConvolutionPlanner.execute(plan, estimate, kernel, SeparableConvolver.Boundary.ZERO, blurred);
+            MatrixUtils.subtract(blurred, observed, blurred);
+            double loss = MatrixUtils.sumOfSquares(blurred);
+
+            if (loss > acceptedLoss) {
+                // The gradient still belongs to the accepted kernel
+                kernel.copyFrom(accepted);
+                rate *= 0.5f;
+            } else {
+                acceptedLoss = loss;
+                accepted.copyFrom(kernel);
+                MatrixUtils.correlate(estimate, blurred, gradient);
+            }
+            step(kernel, gradient, 0, 0, rate);
+        }
+    }
+
+    // Gradient steps on the kernel in place from the spectra of the estimate and the observed image
+    private void descendSpectral(Spectrum estimateFFT, Spectrum observedFFT, FloatImage kernel,
+                                 Spectrum work, FloatImage gradientImage, FloatImage accepted) {
+        float rate = learningRate;
+        double acceptedLoss = Double.MAX_VALUE;
 
         for (int iter = 0; iter < iterations; iter++) {
-            float[][] estimatedBlurred = MatrixUtils.convolve(image, updatedPSF);
-            float[][] error = MatrixUtils.subtract(estimatedBlurred, image);
-            float[][] gradient = MatrixUtils.convolveTranspose(image, error);
-
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    updatedPSF[i][j] -= learningRate * gradient[i][j];
-                    updatedPSF[i][j] = Math.max(updatedPSF[i][j], 0); // keep non-negative
-                }
+            FFTUtils.psfToSpectrum(kernel, work);
+
+            // MatrixUtils.convolve correlates, so residual R = X * conj(P) - Y and gradient G = X * conj(R)
+            work.conjugate();
+            work.multiply(estimateFFT);
+            work.subtract(observedFFT);
+            double loss = work.energy();
+
+            if (loss > acceptedLoss) {
+                // The gradient still belongs to the accepted kernel
+                kernel.copyFrom(accepted);
+                rate *= 0.5f;
+            } else {
+                acceptedLoss = loss;
+                accepted.copyFrom(kernel);
+                work.conjugate();
+                work.multiply(estimateFFT);
+                FFTUtils.ifft2D(work, gradientImage);
             }
+            // The gradient is circular, so tap (i, j) sits at offset (i - kh / 2, j - kw / 2) modulo the size
+            step(kernel, gradientImage, kernel.getWidth() / 2, kernel.getHeight() / 2, rate);
+        }
+    }
 
-            MatrixUtils.normalize(updatedPSF); // ensure PSF sums to 1
+    // kernel -= rate * gradient, kept non-negative and normalized to sum 1; tap (i, j) of the
+    // kernel reads the gradient at (j - padW, i - padH), wrapped around the gradient's size
+    private static void step(FloatImage kernel, FloatImage gradient, int padW, int padH, float rate) {
+        int kh = kernel.getHeight();
+        int kw = kernel.getWidth();
+        int width = gradient.getWidth();
+        int height = gradient.getHeight();
+        float[] k = kernel.getData();
+        float[] g = gradient.getData();
+
+        for (int i = 0; i < kh; i++) {
+            int row = kernel.index(0, i);
+            int grow = gradient.index(0, Math.floorMod(i - padH, height));
+            for (int j = 0; j < kw; j++) {
+                int x = Math.floorMod(j - padW, width);
+                k[row + j] = Math.max(k[row + j] - rate * g[grow + x], 0); // keep non-negative
+            }
         }
 
-        return updatedPSF;
+        MatrixUtils.normalize(kernel); // ensure PSF sums to 1
     }
 }
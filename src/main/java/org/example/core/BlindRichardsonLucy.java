@@ -0,0 +1,222 @@
+package org.example.core;
+
+import org.example.utils.FFTBackend;
+import org.example.utils.FFTUtils;
+import org.example.utils.FloatImage;
+import org.example.utils.KernelDecomposition;
+import org.example.utils.ParallelScheduler;
+import org.example.utils.Spectrum;
+
+/**
+ * Blind Richardson-Lucy: alternates the latent image update
+ * x <- clamp(x * H^T r) with the kernel update h <- h * X^T r, where
+ * r = y / (h * x + eps). After each kernel update the PSF is clipped to be
+ * non-negative and rescaled to sum to one.
+ *
+ * Both half-steps of an iteration use the same forward evaluation, so the
+ * spectra of the estimate and of the ratio are computed once and shared: the
+ * image half-step multiplies the ratio spectrum by the OTF, the kernel
+ * half-step multiplies it by the estimate's spectrum. An iteration costs six
+ * transforms instead of the four of non-blind RL, and the estimate's spectrum
+ * computed at its end is reused by the next iteration.
+ *
+ * The image is embedded in a transform-sized canvas whose margin repeats the
+ * edge pixels, so the circular transforms do not wrap the borders into each
+ * other. Buffers are allocated once per image and kernel size. An instance
+ * must not be used by two threads at once.
+ */
+public class BlindRichardsonLucy {
+
+    private float lower = 0f;
+    private float upper = Float.MAX_VALUE;
+    private float tolerance;
+    private boolean separable;
+
+    private FloatImage observed;
+    private FloatImage estimate;
+    private FloatImage scratch;
+    private Spectrum estimateSpectrum;
+    private Spectrum ratioSpectrum;
+    private Spectrum transfer;
+    private Spectrum product;
+    private double[] bandSums;
+    private final double[] sums = new double[RichardsonLucy.SUMS];
+
+    private int iterationsRun;
+    private float lastChange;
+
+    /**
+     * Sets the range every estimate is clamped to; [0, Float.MAX_VALUE] by default
+     */
+    public void setBounds(float lower, float upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * Stops once ||x_k+1 - x_k|| / ||x_k|| falls below tolerance; 0 runs every iteration
+     */
+    public void setTolerance(float tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Keeps the kernel separable by replacing it with its best rank-1 approximation after each update
+     */
+    public void setSeparable(boolean separable) {
+        this.separable = separable;
+    }
+
+    /**
+     * @return iterations run by the last call, at most the requested count
+     */
+    public int getIterationsRun() {
+        return iterationsRun;
+    }
+
+    /**
+     * @return relative change of the last iteration
+     */
+    public float getLastChange() {
+        return lastChange;
+    }
+
+    /**
+     * @param image blurred image, not modified
+     * @param psf initial kernel with its centre at (width / 2, height / 2); receives the estimated kernel
+     * @param iterations maximum number of iterations
+     * @return the deconvolved image
+     */
+    public FloatImage deconvolve(FloatImage image, FloatImage psf, int iterations) {
+        int width = image.getWidth(), height = image.getHeight();
+        prepare(width, height, psf.getWidth(), psf.getHeight());
+        int x0 = (observed.getWidth() - width) / 2;
+        int y0 = (observed.getHeight() - height) / 2;
+
+        embed(image, x0, y0, observed);
+        estimate.copyFrom(observed);
+        normalize(psf);
+        FFTUtils.psfToSpectrum(psf, transfer);
+        FFTUtils.fft2D(estimate, estimateSpectrum);
+        iterationsRun = 0;
+        lastChange = Float.POSITIVE_INFINITY;
+
+        for (int it = 0; it < iterations; it++) {
+            // Forward model h * x and the ratio y / (h * x + eps), shared by both half-steps
+            product.setProduct(estimateSpectrum, transfer, true);
+            FFTUtils.ifft2D(product, scratch);
+            RichardsonLucy.ratio(observed, scratch);
+            FFTUtils.fft2D(scratch, ratioSpectrum);
+
+            // Image half-step: x <- clamp(x * H^T r); the new estimate lands in scratch
+            product.setProduct(ratioSpectrum, transfer, false);
+            FFTUtils.ifft2D(product, scratch);
+            RichardsonLucy.update(estimate, estimate, scratch, null, lower, upper, bandSums, sums);
+            iterationsRun = it + 1;
+            lastChange = (float) Math.sqrt(sums[0] / Math.max(sums[1], 1e-30));
+
+            // Kernel half-step: h <- h * X^T r, the correlation of r with x at the kernel's offsets
+            product.setProduct(estimateSpectrum, ratioSpectrum, true);
+            FloatImage swap = estimate;
+            estimate = scratch;
+            scratch = swap;
+            FFTUtils.ifft2D(product, scratch);
+            updateKernel(psf, scratch);
+            FFTUtils.psfToSpectrum(psf, transfer);
+
+            FFTUtils.fft2D(estimate, estimateSpectrum);
+            if (lastChange < tolerance) {
+                break;
+            }
+        }
+
+        return estimate.view(x0, y0, width, height).copy();
+    }
+
+    private void prepare(int width, int height, int kw, int kh) {
+        FFTBackend backend = FFTUtils.getBackend();
+        int tw = backend.paddedWidth(width + kw - 1, height + kh - 1);
+        int th = backend.paddedHeight(width + kw - 1, height + kh - 1);
+        if (observed == null || observed.getWidth() != tw || observed.getHeight() != th) {
+            observed = new FloatImage(tw, th);
+            estimate = new FloatImage(tw, th);
+            scratch = new FloatImage(tw, th);
+            estimateSpectrum = new Spectrum(tw, th);
+            ratioSpectrum = new Spectrum(tw, th);
+            transfer = new Spectrum(tw, th);
+            product = new Spectrum(tw, th);
+            bandSums = new double[RichardsonLucy.SUMS * RichardsonLucy.bands(th)];
+        }
+    }
+
+    // Places image at (x0, y0) and fills the rest of canvas with the nearest edge pixel
+    private static void embed(FloatImage image, int x0, int y0, FloatImage canvas) {
+        int ch = canvas.getHeight();
+        if (ParallelScheduler.runsInline(ch)) {
+            embedRows(image, x0, y0, canvas, 0, ch);
+        } else {
+            ParallelScheduler.forRange(ch, (start, end) -> embedRows(image, x0, y0, canvas, start, end));
+        }
+    }
+
+    private static void embedRows(FloatImage image, int x0, int y0, FloatImage canvas, int start, int end) {
+        int width = image.getWidth(), height = image.getHeight();
+        int cw = canvas.getWidth();
+        float[] in = image.getData();
+        float[] out = canvas.getData();
+        for (int v = start; v < end; v++) {
+            int src = image.index(0, Math.max(0, Math.min(height - 1, v - y0)));
+            int row = canvas.index(0, v);
+            for (int u = 0; u < cw; u++) {
+                out[row + u] = in[src + Math.max(0, Math.min(width - 1, u - x0))];
+            }
+        }
+    }
+
+    /**
+     * h <- h * g at each kernel offset, where correlation holds g at circular
+     * offsets from the origin; then clipped, optionally made rank 1, and rescaled
+     */
+    private void updateKernel(FloatImage psf, FloatImage correlation) {
+        int kw = psf.getWidth(), kh = psf.getHeight();
+        int cw = correlation.getWidth(), ch = correlation.getHeight();
+        for (int i = 0; i < kh; i++) {
+            int y = Math.floorMod(i - kh / 2, ch);
+            for (int j = 0; j < kw; j++) {
+                int x = Math.floorMod(j - kw / 2, cw);
+                psf.set(j, i, Math.max(0f, psf.get(j, i) * correlation.get(x, y)));
+            }
+        }
+        if (separable) {
+            KernelDecomposition rank1 = KernelDecomposition.of(psf, 1f);
+            float[] vertical = rank1.getVertical(0), horizontal = rank1.getHorizontal(0);
+            for (int i = 0; i < kh; i++) {
+                for (int j = 0; j < kw; j++) {
+                    psf.set(j, i, Math.max(0f, vertical[i] * horizontal[j]));
+                }
+            }
+        }
+        normalize(psf);
+    }
+
+    // Rescales to unit sum; a kernel that lost all its mass becomes uniform
+    private static void normalize(FloatImage psf) {
+        int kw = psf.getWidth(), kh = psf.getHeight();
+        double sum = 0;
+        for (int i = 0; i < kh; i++) {
+            for (int j = 0; j < kw; j++) {
+                sum += psf.get(j, i);
+            }
+        }
+        if (sum <= 0 || Double.isNaN(sum)) {
+            psf.fill(1f / (kw * kh));
+            return;
+        }
+        float scale = (float) (1 / sum);
+        for (int i = 0; i < kh; i++) {
+            for (int j = 0; j < kw; j++) {
+                psf.set(j, i, psf.get(j, i) * scale);
+            }
+        }
+    }
+}
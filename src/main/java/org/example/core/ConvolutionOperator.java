@@ -0,0 +1,23 @@
+package org.example.core;
+
+import org.example.utils.FloatImage;
+
+/**
+ * Blur operator H used by iterative deconvolution: apply computes H x and
+ * applyAdjoint computes the transpose H^T x. Implementations write into the
+ * given output and keep whatever scratch state they need between calls.
+ */
+public interface ConvolutionOperator {
+
+    /**
+     * @param input image to blur, not modified
+     * @param output same size as input; must not share pixels with it
+     */
+    void apply(FloatImage input, FloatImage output);
+
+    /**
+     * @param input image to back-project, not modified
+     * @param output same size as input; must not share pixels with it
+     */
+    void applyAdjoint(FloatImage input, FloatImage output);
+}
@@ -0,0 +1,102 @@
+package org.example.core;
+
+import org.example.utils.FloatImage;
+
+/**
+ * Detects scene changes between consecutive frames of a stream.
+ *
+ * Each frame is reduced to a coarse grid of block means, normalized to zero
+ * mean and unit variance so that global exposure changes do not count as
+ * drift. A frame has drifted when the RMS difference between its signature
+ * and the previous frame's exceeds the threshold.
+ */
+public class DriftDetector {
+
+    private static final int GRID = 16;
+
+    private float threshold = 0.25f;
+    private float[] reference;
+    private int referenceWidth;
+    private int referenceHeight;
+    private float lastDistance = Float.NaN;
+
+    public void setThreshold(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Compares frame with the previous frame and makes it the new reference
+     * @return true if there is no comparable previous frame or the scene has changed
+     */
+    public boolean update(FloatImage frame) {
+        float[] signature = signature(frame);
+        boolean comparable = reference != null
+                && referenceWidth == frame.getWidth() && referenceHeight == frame.getHeight();
+
+        lastDistance = comparable ? distance(reference, signature) : Float.NaN;
+        reference = signature;
+        referenceWidth = frame.getWidth();
+        referenceHeight = frame.getHeight();
+        return !comparable || lastDistance > threshold;
+    }
+
+    public void reset() {
+        reference = null;
+        lastDistance = Float.NaN;
+    }
+
+    /**
+     * @return the signature distance computed by the last update, NaN if there was no reference
+     */
+    public float getLastDistance() {
+        return lastDistance;
+    }
+
+    private static float[] signature(FloatImage frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int gx = Math.min(GRID, width);
+        int gy = Math.min(GRID, height);
+        float[] data = frame.getData();
+        double[] sums = new double[gx * gy];
+        int[] counts = new int[gx * gy];
+
+        for (int y = 0; y < height; y++) {
+            int row = frame.index(0, y);
+            int by = y * gy / height;
+            for (int x = 0; x < width; x++) {
+                int cell = by * gx + x * gx / width;
+                sums[cell] += data[row + x];
+                counts[cell]++;
+            }
+        }
+
+        float[] signature = new float[gx * gy];
+        double mean = 0;
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = (float) (sums[i] / counts[i]);
+            mean += signature[i];
+        }
+        mean /= signature.length;
+
+        double variance = 0;
+        for (float s : signature) {
+            variance += (s - mean) * (s - mean);
+        }
+        double std = Math.sqrt(variance / signature.length);
+        float scale = std < 1e-6 ? 0f : (float) (1 / std);
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = (float) ((signature[i] - mean) * scale);
+        }
+        return signature;
+    }
+
+    private static float distance(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double d = a[i] - b[i];
+            sum += d * d;
+        }
+        return (float) Math.sqrt(sum / a.length);
+    }
+}
@@ -2,8 +2,23 @@ package org.example.core;
 
 import ij.IJ;
 import org.example.DeconvolutionProgressListener;
+import org.example.utils.ConvolutionPlanner;
+import org.example.utils.FFTUtils;
+import org.example.utils.FloatImage;
+import org.example.utils.ImagePyramid;
+import org.example.utils.OTF;
+import org.example.utils.SeparableConvolver;
+import org.example.utils.Spectrum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class ECMADProcessor {
+    // Pyramid levels are not made smaller than this in either dimension
+    public static final int MIN_PYRAMID_SIZE = 64;
+
     private WienerDeconvolver wienerDeconvolver;
     private TVRegularizer tvRegularizer;
     private BlindDeconvolver blindDeconvolver;
@@ -11,6 +26,21 @@ public class ECMADProcessor {
     private int maxIterations;
     private float entropyThreshold;
     private DeconvolutionProgressListener progressListener;
+    // Reused across iterations and calls (e.g. RGB channels) while the PSF content is unchanged
+    private OTF initialOTF;
+    // PSF carried from one frame to the next in warm-start mode
+    private boolean warmStart;
+    private final DriftDetector driftDetector = new DriftDetector();
+    private FloatImage warmPSF;
+    private int iterationsRun;
+    // Coarse-to-fine PSF estimation; a single level runs everything at full resolution
+    private int pyramidLevels = 1;
+    private int fullResolutionIterations = 2;
+    // Metrics of the last process call; the entries are refilled by the next one
+    private final List<IterationMetrics> metrics = new ArrayList<>();
+    private int metricsCount;
+    // Scratch buffers per pyramid level, kept while the image and PSF sizes stay the same
+    private ECMADWorkspace[] workspaces = new ECMADWorkspace[0];
 
     public ECMADProcessor(
             WienerDeconvolver wienerDeconvolver,
@@ -31,16 +61,186 @@ public class ECMADProcessor {
         this.progressListener = listener;
     }
 
-    public float[][] process(float[][] image, float[][] initialPSF) {
-        // Make a defensive copy of the input image
-        float[][] currentEstimate = copyArray(image);
-        float[][] currentPSF = copyArray(initialPSF);
-        float[][] previousEstimate = null;
+    /**
+     * Seeds the OTF cache, e.g. with a transform shared between per-channel processors.
+     * The OTF is only read, so one instance may be shared across threads.
+     */
+    public void setInitialOTF(OTF otf) {
+        this.initialOTF = otf;
+    }
+
+    /**
+     * In warm-start mode each call starts from the PSF the previous call ended
+     * with and skips the pyramid, unless the DriftDetector reports a scene change
+     * or the frame size changed. Only the PSF is carried; the final estimate is
+     * deliberately not. Every iteration starts by Wiener filtering the observed
+     * frame, which overwrites the estimate before anything reads it, so a carried
+     * estimate could not seed the next frame.
+     */
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+        if (!warmStart) {
+            resetWarmStart();
+        }
+    }
+
+    /**
+     * Forgets the carried state so the next frame starts cold
+     */
+    public void resetWarmStart() {
+        warmPSF = null;
+        driftDetector.reset();
+    }
+
+    /**
+     * Estimates the PSF coarse to fine: the outer iterations run on each level of
+     * a 2x pyramid, coarsest first, and the PSF found on one level seeds the next.
+     * At full resolution at most fullResolutionIterations refine it. Levels stop
+     * at MIN_PYRAMID_SIZE. Warm-started frames skip the pyramid and run only the
+     * full-resolution refinement, starting from the carried PSF.
+     * @param levels pyramid levels including full resolution; 1 disables the pyramid
+     * @param fullResolutionIterations iteration limit at full resolution
+     */
+    public void setPyramid(int levels, int fullResolutionIterations) {
+        this.pyramidLevels = Math.max(1, levels);
+        this.fullResolutionIterations = Math.max(1, fullResolutionIterations);
+    }
+
+    public DriftDetector getDriftDetector() {
+        return driftDetector;
+    }
+
+    /**
+     * @return the number of iterations the last call to process ran
+     */
+    public int getIterationsRun() {
+        return iterationsRun;
+    }
+
+    /**
+     * @return one entry per iteration of the last call to process, in order;
+     * the next call refills the same entries
+     */
+    public List<IterationMetrics> getMetrics() {
+        return Collections.unmodifiableList(metrics.subList(0, metricsCount));
+    }
+
+    public FloatImage process(FloatImage image, FloatImage initialPSF) {
+        // The iterations copy the image and PSF into workspace buffers, so the inputs are never modified
+        FloatImage currentPSF = initialPSF;
+
+        // Processors are reused across frames; every run starts from the initial weights
+        entropyController.reset();
+
+        IJ.log("ECMAD: Image dimensions: " + image.getHeight() + "x" + image.getWidth());
+        IJ.log("ECMAD: PSF dimensions: " + initialPSF.getHeight() + "x" + initialPSF.getWidth());
 
-        IJ.log("ECMAD: Image dimensions: " + image.length + "x" + image[0].length);
-        IJ.log("ECMAD: PSF dimensions: " + initialPSF.length + "x" + initialPSF[0].length);
+        initialOTF = OTF.update(initialOTF, initialPSF, image.getWidth(), image.getHeight());
+        OTF otf = initialOTF;
 
-        for (int iteration = 0; iteration < maxIterations; iteration++) {
+        boolean warm = false;
+        if (warmStart) {
+            // The detector also reports a change of frame size as drift
+            boolean drifted = driftDetector.update(image);
+            if (warmPSF != null && !drifted && warmPSF.sameShape(initialPSF)) {
+                IJ.log("ECMAD: Warm start from previous frame (drift " + driftDetector.getLastDistance() + ")");
+                currentPSF = warmPSF;
+                // The carried PSF has no cached transform; the first iteration computes it
+                otf = null;
+                warm = true;
+            } else if (warmPSF != null) {
+                IJ.log("ECMAD: Scene change detected, cold start");
+            }
+        }
+
+        iterationsRun = 0;
+        metricsCount = 0;
+        int iterations = maxIterations;
+        if (warm && pyramidLevels > 1) {
+            // The carried PSF stands in for the coarse levels' estimate, so it only needs refining
+            iterations = Math.min(maxIterations, fullResolutionIterations);
+        } else if (pyramidLevels > 1) {
+            ImagePyramid pyramid = new ImagePyramid(image, pyramidLevels, MIN_PYRAMID_SIZE);
+            if (pyramid.getLevelCount() > 1) {
+                // The kernel search happens on the coarse levels; full resolution only refines it
+                currentPSF = estimateCoarsePSF(pyramid, currentPSF);
+                otf = null;
+                iterations = Math.min(maxIterations, fullResolutionIterations);
+                entropyController.reset();
+            }
+        }
+
+        State state = new State(image, currentPSF, otf);
+        iterate(image, state, iterations, 0);
+        // The state points into the workspace, which the next call overwrites
+        FloatImage result = state.estimate.copy();
+
+        if (warmStart) {
+            if (warmPSF == null || !warmPSF.sameShape(state.psf)) {
+                warmPSF = new FloatImage(state.psf.getWidth(), state.psf.getHeight());
+            }
+            warmPSF.copyFrom(state.psf);
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs the outer iterations on the coarse pyramid levels, coarsest first,
+     * carrying the PSF from each level to the next finer one
+     * @return the PSF resampled to level 0, the same size as psf
+     */
+    FloatImage estimateCoarsePSF(ImagePyramid pyramid, FloatImage psf) {
+        int top = pyramid.getLevelCount() - 1;
+        int[] widths = new int[top + 1];
+        int[] heights = new int[top + 1];
+        widths[0] = psf.getWidth();
+        heights[0] = psf.getHeight();
+        for (int l = 1; l <= top; l++) {
+            widths[l] = ImagePyramid.scaledKernelSize(widths[l - 1], 0.5f);
+            heights[l] = ImagePyramid.scaledKernelSize(heights[l - 1], 0.5f);
+        }
+
+        FloatImage levelPSF = ImagePyramid.resamplePSF(psf, widths[top], heights[top], 1f / (1 << top));
+        for (int l = top; l >= 1; l--) {
+            FloatImage levelImage = pyramid.getLevel(l);
+            IJ.log("ECMAD: Pyramid level " + l + ": " + levelImage.getWidth() + "x" + levelImage.getHeight()
+                    + ", PSF " + widths[l] + "x" + heights[l]);
+            entropyController.reset();
+
+            State state = new State(levelImage, levelPSF, null);
+            iterate(levelImage, state, maxIterations, l);
+            levelPSF = ImagePyramid.resamplePSF(state.psf, widths[l - 1], heights[l - 1], 2f);
+        }
+        return levelPSF;
+    }
+
+    /**
+     * Runs up to the given number of outer iterations on one image. Every image-sized
+     * buffer comes from the level's workspace; the estimate and PSF alternate between
+     * two buffers each, and state ends up pointing at the current ones. Once the
+     * workspace and metrics exist, an iteration whose transforms are power of 2
+     * sized allocates nothing unless it logs; JTransforms allocates scratch for
+     * other sizes.
+     * @param level pyramid level of image, recorded in the metrics
+     */
+    private void iterate(FloatImage image, State state, int iterations, int level) {
+        ECMADWorkspace workspace = workspace(level, image, state.psf);
+        workspace.loadObserved(image);
+        // Each slot flips together with its buffer, so a failed step cannot make next alias current
+        int estimateSlot = 0;
+        int psfSlot = 0;
+        FloatImage currentEstimate = workspace.getEstimate(estimateSlot);
+        FloatImage currentPSF = workspace.getPSF(psfSlot);
+        currentEstimate.copyFrom(state.estimate);
+        currentPSF.copyFrom(state.psf);
+        FloatImage previousEstimate = null;
+        // The state's OTF describes its PSF, so it is used until the first PSF update
+        OTF otf = state.otf;
+        int psfUpdates = 0;
+
+        for (int i = 0; i < iterations; i++) {
+            int iteration = iterationsRun++;
             try {
                 if (progressListener != null) {
                     progressListener.onIterationStart(iteration);
@@ -48,33 +248,55 @@ public class ECMADProcessor {
                     IJ.log("Iteration: " + iteration);
                 }
 
-                // Store previous estimate for convergence check
-                previousEstimate = copyArray(currentEstimate);
+                // The new estimate goes to the other buffer, so the previous one stays intact without a copy
+                previousEstimate = currentEstimate;
+                FloatImage nextEstimate = workspace.getEstimate(1 - estimateSlot);
+                FloatImage nextPSF = workspace.getPSF(1 - psfSlot);
 
                 // Step 1: Wiener Deconvolution
-                IJ.log("ECMAD: Performing Wiener deconvolution...");
-                currentEstimate = wienerDeconvolver.deconvolve(image, currentPSF);
+                logStep("ECMAD: Performing Wiener deconvolution...");
+                Spectrum transfer = workspace.getTransfer();
+                if (psfUpdates == 0 && otf != null) {
+                    transfer = otf.getTransfer();
+                } else {
+                    FFTUtils.psfToSpectrum(currentPSF, transfer);
+                }
+                wienerDeconvolver.deconvolve(workspace.getObservedSpectrum(), transfer, workspace.getWork(),
+                        workspace.getFiltered());
 
-                // Step 2: Total Variation Regularization - Apply TV using whatever method TVRegularizer provides
-                IJ.log("ECMAD: Applying TV regularization...");
-                // Use applyRegularization instead of regularize
-                currentEstimate = applyTVRegularization(currentEstimate);
+                // Step 2: Total Variation Regularization
+                logStep("ECMAD: Applying TV regularization...");
+                applyTVRegularization(workspace.getFiltered(), nextEstimate, workspace);
+                currentEstimate = nextEstimate;
+                estimateSlot = 1 - estimateSlot;
 
                 // Step 3: Update PSF with Blind Deconvolution
-                IJ.log("ECMAD: Updating PSF...");
-                // Call updatePSF with just image and estimate, since your class doesn't accept currentPSF
-                currentPSF = blindDeconvolver.updatePSF(image, currentEstimate);
+                logStep("ECMAD: Updating PSF...");
+                blindDeconvolver.updatePSF(image, currentEstimate, currentPSF, nextPSF, workspace);
+                FloatImage previousPSF = currentPSF;
+                currentPSF = nextPSF;
+                psfSlot = 1 - psfSlot;
+                psfUpdates++;
 
                 // Step 4: Check entropy convergence
-                float entropy = entropyController.computeEntropy(currentEstimate); // Use computeEntropy instead of calculateEntropy
+                // All convergence metrics come from one fused measurement over the estimate
+                EntropyController.Measurement measurement = entropyController.measure(
+                        currentEstimate, previousEstimate, image,
+                        forwardModel(currentEstimate, currentPSF, workspace));
+                IterationMetrics iterationMetrics = recordMetrics(iteration, level, measurement,
+                        relativeChange(currentPSF, previousPSF));
+                float entropy = measurement.getEntropy();
                 entropyController.updateWeights(entropy); // Update weights based on entropy
 
-                float error = calculateError(previousEstimate, currentEstimate);
-
-                IJ.log("ECMAD: Current entropy: " + entropy + ", Error: " + error);
+                float error = measurement.getRelativeError();
 
+                // A listener reports the metrics itself
                 if (progressListener != null) {
                     progressListener.onIterationComplete(iteration, error);
+                    progressListener.onIterationMetrics(iterationMetrics);
+                } else {
+                    IJ.log("ECMAD: Current entropy: " + entropy + ", Error: " + error
+                            + ", Residual: " + measurement.getResidual());
                 }
 
                 // Check convergence
@@ -84,7 +306,7 @@ public class ECMADProcessor {
                 }
 
                 // Adjust weights based on results
-                adjustWeights(entropy, iteration);
+                adjustWeights(entropy, i);
 
             } catch (Exception e) {
                 IJ.log("🚨 Error in ECMAD iteration " + iteration + ": " + e.getMessage());
@@ -93,20 +315,58 @@ public class ECMADProcessor {
             }
         }
 
-        return currentEstimate;
+        state.estimate = currentEstimate;
+        state.psf = currentPSF;
     }
 
-    private float[][] applyTVRegularization(float[][] image) {
-        // Implement TV regularization using your TVRegularizer class
-        // Since we don't know the exact method signature, we'll have to adapt
+    private ECMADWorkspace workspace(int level, FloatImage image, FloatImage psf) {
+        if (workspaces.length <= level) {
+            workspaces = Arrays.copyOf(workspaces, level + 1);
+        }
+        ECMADWorkspace workspace = workspaces[level];
+        if (workspace == null || !workspace.fits(image.getWidth(), image.getHeight(), psf.getWidth(), psf.getHeight())) {
+            workspace = new ECMADWorkspace(image.getWidth(), image.getHeight(), psf.getWidth(), psf.getHeight());
+            workspaces[level] = workspace;
+        }
+        return workspace;
+    }
 
-        // This is a placeholder - you'll need to replace with actual calls to your TVRegularizer
-        // For example, if TVRegularizer has a method like "applyTV" or similar:
-        // return tvRegularizer.applyTV(image, entropyController.getTVWeight());
+    // estimate convolved with psf into the workspace, with the zero boundary BlindDeconvolver fits direct kernels under
+    private static FloatImage forwardModel(FloatImage estimate, FloatImage psf, ECMADWorkspace workspace) {
+        ConvolutionPlanner.execute(workspace.getConvolutionPlan(), estimate, psf, SeparableConvolver.Boundary.ZERO,
+                workspace.getBlurred());
+        return workspace.getBlurred();
+    }
+
+    // Refills the metrics entry of this iteration, adding one the first time the list is this long
+    private IterationMetrics recordMetrics(int iteration, int level, EntropyController.Measurement measurement,
+                                           float psfChange) {
+        if (metricsCount == metrics.size()) {
+            metrics.add(new IterationMetrics(iteration, level, measurement, psfChange));
+        } else {
+            metrics.get(metricsCount).set(iteration, level, measurement, psfChange);
+        }
+        return metrics.get(metricsCount++);
+    }
+
+    // ||current - previous|| / ||previous|| for two kernels of the same size
+    private static float relativeChange(FloatImage current, FloatImage previous) {
+        float[] c = current.getData(), p = previous.getData();
+        double diff = 0, norm = 0;
+        for (int i = 0; i < current.getHeight(); i++) {
+            int row = current.index(0, i), prow = previous.index(0, i);
+            for (int j = 0; j < current.getWidth(); j++) {
+                double d = c[row + j] - p[prow + j];
+                diff += d * d;
+                norm += (double) p[prow + j] * p[prow + j];
+            }
+        }
+        return norm > 0 ? (float) Math.sqrt(diff / norm) : 0f;
+    }
 
-        // Simplified approach: just return the image if we don't know how to call TVRegularizer
-        IJ.log("Warning: TV regularization not applied - method not found");
-        return image;
+    private void applyTVRegularization(FloatImage image, FloatImage result, ECMADWorkspace workspace) {
+        // The controller raises the TV weight while the entropy stays high
+        tvRegularizer.denoise(image, entropyController.getTVWeight(), result, workspace.getTVBuffers());
     }
 
     private void adjustWeights(float entropy, int iteration) {
@@ -116,43 +376,35 @@ public class ECMADProcessor {
             if (entropy > entropyThreshold * 1.2) {
                 entropyController.increaseTVWeight();
                 entropyController.decreaseWienerWeight();
-                IJ.log("ECMAD: Increasing TV weight to " + entropyController.getTVWeight());
+                if (progressListener == null) {
+                    IJ.log("ECMAD: Increasing TV weight to " + entropyController.getTVWeight());
+                }
             } else if (entropy < entropyThreshold * 0.8) {
                 entropyController.resetTVWeight();
                 entropyController.increaseWienerWeight();
-                IJ.log("ECMAD: Resetting TV weight and increasing Wiener weight");
+                logStep("ECMAD: Resetting TV weight and increasing Wiener weight");
             }
         }
     }
 
-    private float[][] copyArray(float[][] source) {
-        if (source == null) return null;
-        float[][] copy = new float[source.length][source[0].length];
-        for (int i = 0; i < source.length; i++) {
-            System.arraycopy(source[i], 0, copy[i], 0, source[i].length);
+    // A listener reports progress itself, and logging allocates, so steps are only logged without one
+    private void logStep(String message) {
+        if (progressListener == null) {
+            IJ.log(message);
         }
-        return copy;
     }
 
-    private float calculateError(float[][] previous, float[][] current) {
-        if (previous == null) return Float.MAX_VALUE;
+    // Estimate, PSF and OTF threaded through the iterations of one level
+    private static class State {
+        FloatImage estimate;
+        FloatImage psf;
+        // Transform of psf for the image, or null
+        OTF otf;
 
-        float sumSquaredDiff = 0;
-        float sumSquared = 0;
-
-        for (int i = 0; i < previous.length; i++) {
-            for (int j = 0; j < previous[0].length; j++) {
-                float diff = previous[i][j] - current[i][j];
-                sumSquaredDiff += diff * diff;
-                sumSquared += previous[i][j] * previous[i][j];
-            }
+        State(FloatImage estimate, FloatImage psf, OTF otf) {
+            this.estimate = estimate;
+            this.psf = psf;
+            this.otf = otf;
         }
-
-        // Prevent division by zero
-        if (sumSquared < 0.000001f) {
-            return sumSquaredDiff;
-        }
-
-        return (float) Math.sqrt(sumSquaredDiff / sumSquared);
     }
-}
\ No newline at end of file
+}
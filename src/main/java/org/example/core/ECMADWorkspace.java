@@ -0,0 +1,168 @@
+package org.example.core;
+
+import ij.IJ;
+import org.example.utils.ConvolutionPlanner;
+import org.example.utils.FFTBackend;
+import org.example.utils.FFTUtils;
+import org.example.utils.FloatImage;
+import org.example.utils.Spectrum;
+
+/**
+ * Scratch buffers for the ECMAD stages at one image and PSF size. The
+ * processor keeps one per pyramid level and reuses it for every iteration,
+ * frame and run of that shape; each stage writes into the buffers it is
+ * handed instead of allocating its own, and spatial convolutions with the PSF
+ * run the workspace's plan. An instance must not be used by two threads at once.
+ */
+public class ECMADWorkspace {
+
+    private final int width;
+    private final int height;
+    private final int psfWidth;
+    private final int psfHeight;
+
+    // The estimate alternates between these so the previous one stays intact
+    private final FloatImage[] estimates;
+    private final FloatImage[] psfs;
+    private final FloatImage filtered;
+    private final FloatImage blurred;
+    private final FloatImage gradient;
+    private final FloatImage kernelGradient;
+    private final FloatImage acceptedKernel;
+    private final Spectrum observedSpectrum;
+    private final Spectrum estimateSpectrum;
+    private final Spectrum transfer;
+    private final Spectrum work;
+    private final TVRegularizer.Buffers tvBuffers;
+    private final ConvolutionPlanner.Plan convolutionPlan;
+
+    /**
+     * @param width image width
+     * @param height image height
+     * @param psfWidth PSF width
+     * @param psfHeight PSF height
+     */
+    public ECMADWorkspace(int width, int height, int psfWidth, int psfHeight) {
+        this.width = width;
+        this.height = height;
+        this.psfWidth = psfWidth;
+        this.psfHeight = psfHeight;
+
+        FFTBackend backend = FFTUtils.getBackend();
+        int tw = backend.paddedWidth(width, height);
+        int th = backend.paddedHeight(width, height);
+        estimates = new FloatImage[]{new FloatImage(width, height), new FloatImage(width, height)};
+        psfs = new FloatImage[]{new FloatImage(psfWidth, psfHeight), new FloatImage(psfWidth, psfHeight)};
+        filtered = new FloatImage(width, height);
+        blurred = new FloatImage(width, height);
+        gradient = new FloatImage(tw, th);
+        kernelGradient = new FloatImage(psfWidth, psfHeight);
+        acceptedKernel = new FloatImage(psfWidth, psfHeight);
+        observedSpectrum = new Spectrum(tw, th);
+        estimateSpectrum = new Spectrum(tw, th);
+        transfer = new Spectrum(tw, th);
+        work = new Spectrum(tw, th);
+        tvBuffers = new TVRegularizer.Buffers(width, height);
+        // The PSF changes every iteration, so the plan depends on its shape only
+        convolutionPlan = ConvolutionPlanner.plan(width, height, psfWidth, psfHeight);
+        IJ.log("ECMAD: PSF convolution " + width + "x" + height + " with " + psfWidth + "x" + psfHeight
+                + " kernel: " + convolutionPlan);
+    }
+
+    /**
+     * @return true if the buffers fit the given sizes at the current backend's transform size
+     */
+    public boolean fits(int width, int height, int psfWidth, int psfHeight) {
+        FFTBackend backend = FFTUtils.getBackend();
+        return this.width == width && this.height == height
+                && this.psfWidth == psfWidth && this.psfHeight == psfHeight
+                && work.getWidth() == backend.paddedWidth(width, height)
+                && work.getHeight() == backend.paddedHeight(width, height);
+    }
+
+    /**
+     * Transforms the observed image once; stages read the result through getObservedSpectrum
+     */
+    public void loadObserved(FloatImage observed) {
+        FFTUtils.fft2D(observed, observedSpectrum);
+    }
+
+    /**
+     * @return estimate buffer 0 or 1
+     */
+    public FloatImage getEstimate(int index) {
+        return estimates[index];
+    }
+
+    /**
+     * @return PSF buffer 0 or 1
+     */
+    public FloatImage getPSF(int index) {
+        return psfs[index];
+    }
+
+    /**
+     * @return image-sized buffer for the Wiener output
+     */
+    public FloatImage getFiltered() {
+        return filtered;
+    }
+
+    /**
+     * @return image-sized buffer for forward models and residuals
+     */
+    public FloatImage getBlurred() {
+        return blurred;
+    }
+
+    /**
+     * @return transform-sized real buffer
+     */
+    public FloatImage getGradient() {
+        return gradient;
+    }
+
+    /**
+     * @return PSF-sized buffer for the kernel gradient
+     */
+    public FloatImage getKernelGradient() {
+        return kernelGradient;
+    }
+
+    /**
+     * @return PSF-sized buffer for the kernel before the last gradient step
+     */
+    public FloatImage getAcceptedKernel() {
+        return acceptedKernel;
+    }
+
+    public Spectrum getObservedSpectrum() {
+        return observedSpectrum;
+    }
+
+    public Spectrum getEstimateSpectrum() {
+        return estimateSpectrum;
+    }
+
+    /**
+     * @return spectrum buffer for the OTF of the current PSF
+     */
+    public Spectrum getTransfer() {
+        return transfer;
+    }
+
+    public Spectrum getWork() {
+        return work;
+    }
+
+    public TVRegularizer.Buffers getTVBuffers() {
+        return tvBuffers;
+    }
+
+    /**
+     * @return plan for convolving an image-sized estimate with any PSF of this size
+     */
+    public ConvolutionPlanner.Plan getConvolutionPlan() {
+        return convolutionPlan;
+    }
+}
@@ -1,42 +1,390 @@
 package org.example.core;
 
-import java.util.HashMap;
-import java.util.Map;
+import org.example.utils.FloatImage;
+import org.example.utils.ParallelScheduler;
+
+import java.util.Arrays;
 
 public class EntropyController {
 
+    // Wider level ranges (e.g. 16-bit or float data) sort the sampled levels instead of histogramming them
+    public static final int MAX_BINS = 1 << 18;
+    // Bins summed over all band histograms; wide histograms get fewer, taller bands
+    private static final int HISTOGRAM_BUDGET = 1 << 22;
+
+    // Values per band written by rangeAndNorms
+    private static final int NORMS = 6;
+
+    // c * log2(c) for the small counts that make up most bins
+    private static final int LOG_TABLE_SIZE = 1 << 12;
+    private static final double[] C_LOG2_C = new double[LOG_TABLE_SIZE];
+
+    static {
+        for (int c = 1; c < LOG_TABLE_SIZE; c++) {
+            C_LOG2_C[c] = c * (Math.log(c) / Math.log(2));
+        }
+    }
+
+    /**
+     * Entropy and range of an estimate together with its change from the previous
+     * one and, when a forward model is given, its residual against the observed image.
+     * Each controller fills the same instance on every call to measure.
+     */
+    public static class Measurement {
+        private float entropy;
+        private float min;
+        private float max;
+        private double differenceSquared;
+        private double previousSquared;
+        private boolean hasPrevious;
+        private double residualSquared;
+        private double observedSquared;
+        private boolean hasResidual;
+
+        void set(float entropy, float min, float max, double differenceSquared, double previousSquared,
+                 boolean hasPrevious, double residualSquared, double observedSquared, boolean hasResidual) {
+            this.entropy = entropy;
+            this.min = min;
+            this.max = max;
+            this.differenceSquared = differenceSquared;
+            this.previousSquared = previousSquared;
+            this.hasPrevious = hasPrevious;
+            this.residualSquared = residualSquared;
+            this.observedSquared = observedSquared;
+            this.hasResidual = hasResidual;
+        }
+
+        public float getEntropy() {
+            return entropy;
+        }
+
+        public float getMin() {
+            return min;
+        }
+
+        public float getMax() {
+            return max;
+        }
+
+        /**
+         * @return ||current - previous|| / ||previous||, the squared difference if
+         * previous is nearly zero, or Float.MAX_VALUE without a previous estimate
+         */
+        public float getRelativeError() {
+            if (!hasPrevious) return Float.MAX_VALUE;
+            // Prevent division by zero
+            if (previousSquared < 0.000001f) {
+                return (float) differenceSquared;
+            }
+            return (float) Math.sqrt(differenceSquared / previousSquared);
+        }
+
+        /**
+         * @return ||blurred - observed|| / ||observed||, or NaN without a forward model
+         */
+        public float getResidual() {
+            if (!hasResidual) return Float.NaN;
+            return (float) Math.sqrt(residualSquared / Math.max(observedSquared, 1e-30));
+        }
+    }
+
     private float lastEntropy = -1;
+    private float previousEntropy = -1;
     private float convergenceThreshold = 0.001f;
     private float wienerWeight = 1.0f;
     private float tvWeight = 1.0f;
+    private int samplingStride = 1;
+
+    // Per-band histograms and norms, kept between calls
+    private int[][] bandHistograms = new int[0][];
+    private double[] bandNorms = new double[0];
+    // Sampled levels of wide-range estimates, sorted to count them
+    private int[] sortedLevels = new int[0];
+    private final Measurement measurement = new Measurement();
+
+    /**
+     * Histograms only every stride-th pixel of every stride-th row; 1 uses all pixels.
+     * Error norms always use every pixel.
+     */
+    public void setSamplingStride(int stride) {
+        this.samplingStride = Math.max(1, stride);
+    }
 
-    public float computeEntropy(float[][] image) {
-        Map<Integer, Integer> histogram = new HashMap<>();
-        int totalPixels = image.length * image[0].length;
+    /**
+     * Shannon entropy in bits of the estimate quantized to 1/255 steps. Every
+     * level is counted on its own, however wide the estimate's range.
+     */
+    public float computeEntropy(FloatImage image) {
+        return measure(image, null).getEntropy();
+    }
+
+    /**
+     * Computes the entropy of current and, in the same sweep that finds its
+     * range, the norms for its relative change from previous
+     * @param current the new estimate
+     * @param previous the estimate before it, same size, or null
+     * @return the controller's measurement, overwritten by the next call
+     */
+    public Measurement measure(FloatImage current, FloatImage previous) {
+        return measure(current, previous, null, null);
+    }
 
-        for (float[] row : image) {
-            for (float pixel : row) {
-                int val = (int) (pixel * 255);
-                histogram.put(val, histogram.getOrDefault(val, 0) + 1);
+    /**
+     * Computes every convergence metric of an estimate: the sweep that finds its
+     * range also sums the norms for its relative change from previous and for the
+     * data-fidelity residual, and a second sweep counts the levels for the entropy
+     * @param current the new estimate
+     * @param previous the estimate before it, same size, or null
+     * @param observed the blurred input, same size, or null
+     * @param blurred current convolved with the PSF, same size, or null
+     * @return the controller's measurement, overwritten by the next call
+     */
+    public Measurement measure(FloatImage current, FloatImage previous, FloatImage observed, FloatImage blurred) {
+        boolean residual = observed != null && blurred != null;
+        int height = current.getHeight();
+        // Fixed bands, so the sums are grouped the same way for any thread count
+        int grain = ParallelScheduler.DEFAULT_GRAIN;
+
+        // Range of the quantized levels and the norms, one sweep over every pixel
+        int normBands = (height + grain - 1) / grain;
+        if (bandNorms.length < NORMS * normBands) {
+            bandNorms = new double[NORMS * normBands];
+        }
+        double[] norms = bandNorms;
+        FloatImage residualObserved = residual ? observed : null;
+        if (ParallelScheduler.runsInline(height, grain)) {
+            for (int start = 0; start < height; start += grain) {
+                rangeAndNorms(current, previous, residualObserved, blurred, start, Math.min(height, start + grain),
+                        norms, NORMS * (start / grain));
             }
+        } else {
+            ParallelScheduler.forRange(height, grain, (start, end) -> rangeAndNorms(current, previous,
+                    residualObserved, blurred, start, end, norms, NORMS * (start / grain)));
+        }
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE, diff = 0, prev = 0, res = 0, obs = 0;
+        for (int b = 0; b < normBands; b++) {
+            int p = NORMS * b;
+            min = Math.min(min, norms[p]);
+            max = Math.max(max, norms[p + 1]);
+            diff += norms[p + 2];
+            prev += norms[p + 3];
+            res += norms[p + 4];
+            obs += norms[p + 5];
         }
 
-        float entropy = 0;
-        for (int count : histogram.values()) {
-            float p = (float) count / totalPixels;
-            if (p > 0) {
-                entropy -= p * (Math.log(p) / Math.log(2));
+        if (min > max) {
+            min = max = 0;
+        }
+        int lowLevel = level((float) min);
+        long span = (long) level((float) max) - lowLevel + 1;
+        float entropy = span <= MAX_BINS
+                ? histogramEntropy(current, lowLevel, (int) span)
+                : sortedEntropy(current);
+        measurement.set(entropy, (float) min, (float) max, diff, prev, previous != null, res, obs, residual);
+        return measurement;
+    }
+
+    // Entropy of the sampled levels from one histogram bin per level, counted in row bands
+    private float histogramEntropy(FloatImage current, int lowLevel, int bins) {
+        int height = current.getHeight();
+        int grain = histogramGrain(height, bins);
+        int bands = (height + grain - 1) / grain;
+        int[][] histograms = prepareHistograms(bands, bins);
+        int stride = samplingStride;
+        if (ParallelScheduler.runsInline(height, grain)) {
+            for (int start = 0; start < height; start += grain) {
+                countLevels(current, histograms[start / grain], stride, lowLevel, bins,
+                        start, Math.min(height, start + grain));
             }
+        } else {
+            ParallelScheduler.forRange(height, grain, (start, end) -> countLevels(current,
+                    histograms[start / grain], stride, lowLevel, bins, start, end));
         }
 
-        return entropy;
+        long samples = 0;
+        double sumCLogC = 0;
+        int[] merged = histograms[0];
+        for (int b = 1; b < bands; b++) {
+            int[] h = histograms[b];
+            for (int i = 0; i < bins; i++) {
+                merged[i] += h[i];
+            }
+        }
+        for (int i = 0; i < bins; i++) {
+            int c = merged[i];
+            if (c > 0) {
+                samples += c;
+                sumCLogC += cLog2C(c);
+            }
+        }
+        return entropy(samples, sumCLogC);
     }
 
+    // Entropy of the sampled levels from the runs of equal levels once they are sorted
+    private float sortedEntropy(FloatImage current) {
+        int width = current.getWidth();
+        int height = current.getHeight();
+        int stride = samplingStride;
+        int columns = (width + stride - 1) / stride;
+        int samples = ((height + stride - 1) / stride) * columns;
+        if (sortedLevels.length < samples) {
+            sortedLevels = new int[samples];
+        }
+        int[] levels = sortedLevels;
+        int grain = ParallelScheduler.DEFAULT_GRAIN;
+        if (ParallelScheduler.runsInline(height, grain)) {
+            for (int start = 0; start < height; start += grain) {
+                gatherLevels(current, levels, stride, columns, start, Math.min(height, start + grain));
+            }
+        } else {
+            ParallelScheduler.forRange(height, grain, (start, end) -> gatherLevels(current, levels, stride,
+                    columns, start, end));
+        }
+
+        Arrays.sort(levels, 0, samples);
+        double sumCLogC = 0;
+        for (int i = 0; i < samples; ) {
+            int run = i + 1;
+            while (run < samples && levels[run] == levels[i]) {
+                run++;
+            }
+            sumCLogC += cLog2C(run - i);
+            i = run;
+        }
+        return entropy(samples, sumCLogC);
+    }
+
+    // H = -sum p log2 p = log2 N - (1 / N) sum c log2 c
+    private static float entropy(long samples, double sumCLogC) {
+        return samples > 0
+                ? (float) (Math.log(samples) / Math.log(2) - sumCLogC / samples)
+                : 0f;
+    }
+
+    private static double cLog2C(int c) {
+        return c < LOG_TABLE_SIZE ? C_LOG2_C[c] : c * (Math.log(c) / Math.log(2));
+    }
+
+    // The scheduler's grain, doubled until the band histograms fit HISTOGRAM_BUDGET
+    private static int histogramGrain(int height, int bins) {
+        int grain = ParallelScheduler.DEFAULT_GRAIN;
+        while (grain < height && (long) ((height + grain - 1) / grain) * bins > HISTOGRAM_BUDGET) {
+            grain *= 2;
+        }
+        return grain;
+    }
+
+    private static int level(float value) {
+        return (int) (value * 255);
+    }
+
+    // Adds the sampled pixels of rows [start, end) to histogram, by level relative to lowLevel
+    private static void countLevels(FloatImage current, int[] histogram, int stride, int lowLevel,
+                                    int bins, int start, int end) {
+        float[] data = current.getData();
+        int width = current.getWidth();
+        int lastBin = bins - 1;
+        int first = start + Math.floorMod(-start, stride);
+        for (int y = first; y < end; y += stride) {
+            int row = current.index(0, y);
+            for (int x = 0; x < width; x += stride) {
+                int bin = level(data[row + x]) - lowLevel;
+                histogram[Math.max(0, Math.min(lastBin, bin))]++;
+            }
+        }
+    }
+
+    // Writes the levels of the sampled pixels of rows [start, end) to levels, in sampling order
+    private static void gatherLevels(FloatImage current, int[] levels, int stride, int columns, int start, int end) {
+        float[] data = current.getData();
+        int width = current.getWidth();
+        int first = start + Math.floorMod(-start, stride);
+        int i = (first / stride) * columns;
+        for (int y = first; y < end; y += stride) {
+            int row = current.index(0, y);
+            for (int x = 0; x < width; x += stride) {
+                levels[i++] = level(data[row + x]);
+            }
+        }
+    }
+
+    // Writes min, max and the four squared norms of rows [start, end) to norms at offset
+    private static void rangeAndNorms(FloatImage current, FloatImage previous, FloatImage observed,
+                                      FloatImage blurred, int start, int end, double[] norms, int offset) {
+        int width = current.getWidth();
+        float[] c = current.getData();
+        float[] p = previous != null ? previous.getData() : null;
+        float[] o = observed != null ? observed.getData() : null;
+        float[] b = observed != null ? blurred.getData() : null;
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        double diff = 0, prev = 0, res = 0, obs = 0;
+        for (int y = start; y < end; y++) {
+            int crow = current.index(0, y);
+            for (int x = 0; x < width; x++) {
+                float v = c[crow + x];
+                // Comparisons skip NaN, which would poison Math.min
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            if (p != null) {
+                int prow = previous.index(0, y);
+                for (int x = 0; x < width; x++) {
+                    float d = p[prow + x] - c[crow + x];
+                    diff += d * d;
+                    prev += p[prow + x] * p[prow + x];
+                }
+            }
+            if (o != null) {
+                int orow = observed.index(0, y);
+                int brow = blurred.index(0, y);
+                for (int x = 0; x < width; x++) {
+                    float r = b[brow + x] - o[orow + x];
+                    res += r * r;
+                    obs += o[orow + x] * o[orow + x];
+                }
+            }
+        }
+        norms[offset] = min;
+        norms[offset + 1] = max;
+        norms[offset + 2] = diff;
+        norms[offset + 3] = prev;
+        norms[offset + 4] = res;
+        norms[offset + 5] = obs;
+    }
+
+    private int[][] prepareHistograms(int bands, int bins) {
+        if (bandHistograms.length < bands) {
+            bandHistograms = Arrays.copyOf(bandHistograms, bands);
+        }
+        for (int b = 0; b < bands; b++) {
+            if (bandHistograms[b] == null || bandHistograms[b].length < bins) {
+                bandHistograms[b] = new int[Math.max(bins, 256)];
+            } else {
+                Arrays.fill(bandHistograms[b], 0, bins, 0);
+            }
+        }
+        return bandHistograms;
+    }
+
+    /**
+     * Restores the initial weights and forgets the entropy history, e.g. before the next frame
+     */
+    public void reset() {
+        lastEntropy = -1;
+        previousEntropy = -1;
+        wienerWeight = 1.0f;
+        tvWeight = 1.0f;
+    }
+
+    /**
+     * @return true once the entropy changed by less than the threshold between the last two updates
+     */
     public boolean hasConverged() {
-        return lastEntropy > 0 && Math.abs(lastEntropy - getCurrentEntropy()) < convergenceThreshold;
+        return previousEntropy > 0 && Math.abs(lastEntropy - previousEntropy) < convergenceThreshold;
     }
 
     public void updateWeights(float entropy) {
+        this.previousEntropy = lastEntropy;
         this.lastEntropy = entropy;
     }
 
@@ -63,8 +411,4 @@ public class EntropyController {
     public float getTVWeight() {
         return tvWeight;
     }
-
-    private float getCurrentEntropy() {
-        return lastEntropy;
-    }
 }
@@ -0,0 +1,171 @@
+package org.example.core;
+
+import ij.IJ;
+import ij.process.ImageProcessor;
+import org.example.utils.CompactPSF;
+import org.example.utils.FloatImage;
+import org.example.utils.OTF;
+import org.example.utils.ParallelScheduler;
+import org.example.utils.ProcessorBridge;
+
+import java.util.function.Supplier;
+
+/**
+ * Deconvolves whole frames: splits the channels, picks in-memory or tiled mode
+ * from the frame size and writes the normalized result into a new processor.
+ *
+ * The initial PSF is a compact Gaussian kernel, so the blind step only
+ * estimates its support. Instances are meant to be reused across the frames
+ * of a stream: the OTF is kept while the frame size stays the same, and each
+ * channel keeps its processor. An instance must not be used by two threads
+ * at once.
+ */
+public class FrameDeconvolver {
+
+    // Frames with more pixels than this are deconvolved tile by tile
+    public static final long TILED_THRESHOLD = 2048L * 2048L;
+
+    private final Supplier<ECMADProcessor> processorFactory;
+    private final float psfSigma;
+
+    private float energyFraction = CompactPSF.DEFAULT_ENERGY_FRACTION;
+    private int otfWidth;
+    private int otfHeight;
+    private FloatImage initialPSF;
+    private OTF initialOTF;
+    private ECMADProcessor[] processors = new ECMADProcessor[0];
+    private TiledProcessor[] tiledProcessors = new TiledProcessor[0];
+    private boolean warmStart;
+    private boolean lastTiled;
+
+    /**
+     * @param processorFactory creates an independent processor per channel or tiling worker
+     * @param psfSigma sigma of the Gaussian initial PSF
+     */
+    public FrameDeconvolver(Supplier<ECMADProcessor> processorFactory, float psfSigma) {
+        this.processorFactory = processorFactory;
+        this.psfSigma = psfSigma;
+    }
+
+    /**
+     * Sets the fraction of the Gaussian's energy kept when truncating the initial PSF
+     */
+    public void setEnergyFraction(float energyFraction) {
+        this.energyFraction = energyFraction;
+        this.initialPSF = null;
+        this.initialOTF = null;
+    }
+
+    /**
+     * Seeds each frame with the previous frame's PSF, channel by channel,
+     * falling back to a cold start on scene changes. Tiled frames always
+     * start cold. Frames must arrive in stream order per channel, so interleaved
+     * hyperstack channels need one instance each.
+     */
+    public void setWarmStart(boolean warmStart) {
+        this.warmStart = warmStart;
+        for (ECMADProcessor processor : processors) {
+            processor.setWarmStart(warmStart);
+        }
+    }
+
+    /**
+     * @return iterations run for the last frame, summed over its channels and,
+     * for tiled frames, over every tile
+     */
+    public int getIterationsRun() {
+        int total = 0;
+        for (int c = 0; c < processors.length; c++) {
+            total += lastTiled ? tiledProcessors[c].getIterationsRun() : processors[c].getIterationsRun();
+        }
+        return total;
+    }
+
+    /**
+     * @param ip any ImageJ processor; it is not modified
+     * @return RGB output for RGB input, otherwise 32-bit output in [0,1]
+     */
+    public ImageProcessor deconvolve(ImageProcessor ip) {
+        // Float pixels are shared; 8/16-bit and RGB are converted in one pass
+        FloatImage[] results = deconvolve(ProcessorBridge.toChannels(ip));
+
+        // Each channel is normalized straight into its slot of the output processor
+        ImageProcessor output = ProcessorBridge.createOutput(ip);
+        ParallelScheduler.forRange(results.length, 1, (start, end) -> {
+            for (int c = start; c < end; c++) {
+                ProcessorBridge.writeNormalized(results[c], output, c);
+            }
+        });
+        return output;
+    }
+
+    /**
+     * @param channels the channels of one frame, all the same size; they are not modified
+     * @return the deconvolved channels, unnormalized
+     */
+    public FloatImage[] deconvolve(FloatImage[] channels) {
+        int width = channels[0].getWidth();
+        int height = channels[0].getHeight();
+        boolean tiled = (long) width * height > TILED_THRESHOLD;
+        lastTiled = tiled;
+        preparePSF(width, height, tiled);
+        prepareProcessors(channels.length);
+
+        FloatImage psf = initialPSF;
+        OTF otf = initialOTF;
+        FloatImage[] results = new FloatImage[channels.length];
+
+        // Process channels concurrently, each with its own processor and controller state
+        ParallelScheduler.forRange(channels.length, 1, (start, end) -> {
+            for (int c = start; c < end; c++) {
+                results[c] = processChannel(channels[c], c, channels.length, psf, otf, tiled);
+            }
+        });
+        return results;
+    }
+
+    private void prepareProcessors(int channelCount) {
+        if (processors.length == channelCount) {
+            return;
+        }
+        processors = new ECMADProcessor[channelCount];
+        tiledProcessors = new TiledProcessor[channelCount];
+        for (int c = 0; c < channelCount; c++) {
+            processors[c] = processorFactory.get();
+            processors[c].setWarmStart(warmStart);
+            tiledProcessors[c] = new TiledProcessor(processorFactory);
+        }
+    }
+
+    private void preparePSF(int width, int height, boolean tiled) {
+        if (initialPSF == null) {
+            IJ.log("ECMAD: Creating initial PSF...");
+            // Only the kernel support is kept; transforms embed it at their own size
+            initialPSF = CompactPSF.gaussian(psfSigma, energyFraction).getKernel();
+            IJ.log("ECMAD: PSF support " + initialPSF.getWidth() + "x" + initialPSF.getHeight());
+        }
+        if (tiled) {
+            initialOTF = null;
+        } else if (initialOTF == null || otfWidth != width || otfHeight != height) {
+            // Transformed once and shared read-only by the per-channel processors
+            initialOTF = OTF.forImage(initialPSF, width, height);
+            otfWidth = width;
+            otfHeight = height;
+        }
+    }
+
+    private FloatImage processChannel(FloatImage channel, int c, int channelCount,
+                                      FloatImage psf, OTF otf, boolean tiled) {
+        IJ.log("ECMAD: Processing channel " + (c+1) + " of " + channelCount);
+
+        if (tiled) {
+            return tiledProcessors[c].process(channel, psf);
+        }
+
+        ECMADProcessor processor = processors[c];
+        processor.setInitialOTF(otf);
+
+        IJ.log("ECMAD: Beginning deconvolution process for channel " + (c+1) + "...");
+        return processor.process(channel, psf);
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.core;
+
+/**
+ * Convergence metrics of one ECMAD outer iteration, taken from the estimate
+ * and PSF the iteration ended with. ECMADProcessor refills its instances on
+ * every process call.
+ */
+public class IterationMetrics {
+
+    private int iteration;
+    private int level;
+    private float entropy;
+    private float min;
+    private float max;
+    private float relativeChange;
+    private float residual;
+    private float psfChange;
+
+    public IterationMetrics(int iteration, int level, EntropyController.Measurement measurement, float psfChange) {
+        set(iteration, level, measurement, psfChange);
+    }
+
+    void set(int iteration, int level, EntropyController.Measurement measurement, float psfChange) {
+        this.iteration = iteration;
+        this.level = level;
+        this.entropy = measurement.getEntropy();
+        this.min = measurement.getMin();
+        this.max = measurement.getMax();
+        this.relativeChange = measurement.getRelativeError();
+        this.residual = measurement.getResidual();
+        this.psfChange = psfChange;
+    }
+
+    /**
+     * @return index of the iteration within its process call, counted across pyramid levels
+     */
+    public int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * @return pyramid level the iteration ran on; 0 is full resolution
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public float getEntropy() {
+        return entropy;
+    }
+
+    public float getMin() {
+        return min;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    /**
+     * @return ||x_k - x_k-1|| / ||x_k-1||
+     */
+    public float getRelativeChange() {
+        return relativeChange;
+    }
+
+    /**
+     * @return ||h * x_k - y|| / ||y|| with the updated PSF h
+     */
+    public float getResidual() {
+        return residual;
+    }
+
+    /**
+     * @return ||h_k - h_k-1|| / ||h_k-1|| for the PSF h, measured at the iteration's level
+     */
+    public float getPSFChange() {
+        return psfChange;
+    }
+
+    @Override
+    public String toString() {
+        return "entropy " + entropy + ", change " + relativeChange + ", residual " + residual
+                + ", PSF change " + psfChange + ", range [" + min + ", " + max + "]";
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.core;
+
+import ij.IJ;
+import org.example.utils.ConvolutionPlanner;
+import org.example.utils.FloatImage;
+import org.example.utils.SeparableConvolver;
+
+import java.util.Arrays;
+
+/**
+ * ConvolutionOperator for a fixed kernel and image size. The strategy is
+ * planned once when the operator is created, either the planner's cheapest
+ * or a forced one, and reused for every call. The adjoint correlates with the
+ * kernel rotated by 180 degrees; symmetric kernels share the forward plan.
+ */
+public class KernelConvolution implements ConvolutionOperator {
+
+    private final FloatImage kernel;
+    private final FloatImage flipped;
+    private final SeparableConvolver.Boundary boundary;
+    private final ConvolutionPlanner.Plan plan;
+    private final ConvolutionPlanner.Plan adjointPlan;
+
+    /**
+     * Uses the strategy ConvolutionPlanner estimates to be cheapest
+     */
+    public KernelConvolution(FloatImage kernel, SeparableConvolver.Boundary boundary, int width, int height) {
+        this(kernel, boundary, width, height, null);
+    }
+
+    /**
+     * @param kernel kernel with its centre at (width / 2, height / 2); copied
+     * @param boundary how pixels outside the image are treated
+     * @param width width of the images the operator is applied to
+     * @param height height of the images the operator is applied to
+     * @param strategy the strategy to use, or null to let the planner choose
+     */
+    public KernelConvolution(FloatImage kernel, SeparableConvolver.Boundary boundary, int width, int height,
+                             ConvolutionPlanner.Strategy strategy) {
+        this.kernel = kernel.copy();
+        this.boundary = boundary;
+        this.plan = ConvolutionPlanner.plan(width, height, this.kernel, strategy);
+
+        FloatImage rotated = rotate(this.kernel);
+        if (Arrays.equals(rotated.getData(), this.kernel.getData())) {
+            this.flipped = this.kernel;
+            this.adjointPlan = plan;
+        } else {
+            this.flipped = rotated;
+            this.adjointPlan = ConvolutionPlanner.plan(width, height, rotated, plan.getStrategy());
+        }
+        IJ.log("RL: Operator " + width + "x" + height + " with "
+                + kernel.getWidth() + "x" + kernel.getHeight() + " kernel: " + plan);
+    }
+
+    @Override
+    public void apply(FloatImage input, FloatImage output) {
+        ConvolutionPlanner.execute(plan, input, kernel, boundary, output);
+    }
+
+    @Override
+    public void applyAdjoint(FloatImage input, FloatImage output) {
+        ConvolutionPlanner.execute(adjointPlan, input, flipped, boundary, output);
+    }
+
+    public ConvolutionPlanner.Plan getPlan() {
+        return plan;
+    }
+
+    private static FloatImage rotate(FloatImage kernel) {
+        int kw = kernel.getWidth(), kh = kernel.getHeight();
+        FloatImage rotated = new FloatImage(kw, kh);
+        for (int i = 0; i < kh; i++) {
+            for (int j = 0; j < kw; j++) {
+                rotated.set(j, i, kernel.get(kw - 1 - j, kh - 1 - i));
+            }
+        }
+        return rotated;
+    }
+}
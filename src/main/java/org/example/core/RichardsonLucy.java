@@ -0,0 +1,319 @@
+package org.example.core;
+
+import org.example.utils.FloatImage;
+import org.example.utils.ParallelScheduler;
+
+import java.util.Arrays;
+
+/**
+ * Richardson-Lucy deconvolution with a fixed blur operator:
+ * x <- clamp(x * H^T(y / (H x + eps))).
+ *
+ * The working images and the per-band partial sums are allocated once per
+ * image size and reused, so the iteration loop allocates nothing image-sized
+ * and, on one thread, its own passes allocate nothing at all. The ratio and the
+ * multiply-and-clamp steps are each a single fused pass, and the new estimate
+ * is written into a second buffer that is swapped with the current one, so
+ * the previous estimate stays intact until the next iteration. An instance
+ * must not be used by two threads at once.
+ *
+ * With acceleration on, each step starts from the Biggs-Andrews prediction
+ * x + alpha (x - x_prev), where alpha measures how well the last two RL steps
+ * agree. Alpha falls back to zero, restarting the extrapolation, when the
+ * steps point in opposite directions or an extrapolated step needed a larger
+ * correction than the step before it.
+ * Iteration stops early once the relative change drops below the tolerance.
+ */
+public class RichardsonLucy {
+
+    public static final float EPSILON = 1e-6f;
+
+    // Upper limit on the extrapolation factor; values near 1 make the iteration unstable
+    public static final float MAX_ACCELERATION = 0.95f;
+
+    // Sums per band written by update
+    static final int SUMS = 5;
+
+    private final ConvolutionOperator operator;
+    private float lower = 0f;
+    private float upper = Float.MAX_VALUE;
+    private boolean accelerated;
+    private float tolerance;
+
+    private FloatImage blurred;
+    private FloatImage spare;
+    private FloatImage previous;
+    private FloatImage predicted;
+    private FloatImage step;
+    private double[] bandSums;
+    private final double[] sums = new double[SUMS];
+
+    private int iterationsRun;
+    private int restarts;
+    private float lastChange;
+
+    public RichardsonLucy(ConvolutionOperator operator) {
+        this.operator = operator;
+    }
+
+    /**
+     * Sets the range every estimate is clamped to; [0, Float.MAX_VALUE] by default
+     */
+    public void setBounds(float lower, float upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * Enables Biggs-Andrews extrapolation; off by default
+     */
+    public void setAccelerated(boolean accelerated) {
+        this.accelerated = accelerated;
+    }
+
+    /**
+     * Stops once ||x_k+1 - x_k|| / ||x_k|| falls below tolerance; 0 runs every iteration
+     */
+    public void setTolerance(float tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @return iterations run by the last call, at most the requested count
+     */
+    public int getIterationsRun() {
+        return iterationsRun;
+    }
+
+    /**
+     * @return times the extrapolation was restarted during the last call
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * @return relative change of the last iteration
+     */
+    public float getLastChange() {
+        return lastChange;
+    }
+
+    /**
+     * Runs the iterations starting from the observed image
+     * @param observed blurred image, not modified
+     * @return a new image holding the estimate
+     */
+    public FloatImage deconvolve(FloatImage observed, int iterations) {
+        FloatImage estimate = observed.copy();
+        deconvolve(observed, estimate, iterations);
+        return estimate;
+    }
+
+    /**
+     * Runs the iterations in place
+     * @param observed blurred image, not modified
+     * @param estimate initial guess, same size as observed; receives the result
+     */
+    public void deconvolve(FloatImage observed, FloatImage estimate, int iterations) {
+        prepare(observed.getWidth(), observed.getHeight());
+        iterationsRun = 0;
+        restarts = 0;
+        lastChange = Float.POSITIVE_INFINITY;
+
+        FloatImage current = estimate;
+        FloatImage next = spare;
+        FloatImage prev = previous;
+        float alpha = 0f;
+        boolean history = false;
+
+        for (int it = 0; it < iterations; it++) {
+            FloatImage start = current;
+            if (alpha > 0f) {
+                extrapolate(current, prev, alpha, predicted);
+                start = predicted;
+            }
+
+            operator.apply(start, blurred);
+            ratio(observed, blurred);
+            operator.applyAdjoint(blurred, next);
+            update(start, current, next, accelerated ? step : null, lower, upper, bandSums, sums);
+            iterationsRun = it + 1;
+
+            float change = (float) Math.sqrt(sums[0] / Math.max(sums[1], 1e-30));
+            if (accelerated) {
+                // alpha = <g_k, g_k-1> / <g_k-1, g_k-1> with g the change made by the RL step
+                float used = alpha;
+                alpha = history && sums[3] > 0 ? (float) Math.max(0, Math.min(MAX_ACCELERATION, sums[2] / sums[3])) : 0f;
+                history = true;
+                // An extrapolated step that needed a larger correction than the one before it overshot
+                if (used > 0f && sums[4] > sums[3]) {
+                    alpha = 0f;
+                    history = false;
+                    restarts++;
+                }
+
+                FloatImage recycled = prev;
+                prev = current;
+                current = next;
+                next = recycled;
+            } else {
+                FloatImage swap = current;
+                current = next;
+                next = swap;
+            }
+            lastChange = change;
+
+            if (change < tolerance) {
+                break;
+            }
+        }
+
+        if (current != estimate) {
+            estimate.copyFrom(current);
+        }
+    }
+
+    private void prepare(int width, int height) {
+        if (blurred == null || blurred.getWidth() != width || blurred.getHeight() != height) {
+            blurred = new FloatImage(width, height);
+            spare = new FloatImage(width, height);
+            bandSums = new double[SUMS * bands(height)];
+            previous = null;
+            predicted = null;
+            step = null;
+        }
+        if (accelerated && previous == null) {
+            previous = new FloatImage(width, height);
+            predicted = new FloatImage(width, height);
+            step = new FloatImage(width, height);
+        }
+    }
+
+    // predicted <- clamp(current + alpha * (current - prev))
+    private void extrapolate(FloatImage current, FloatImage prev, float alpha, FloatImage predicted) {
+        int height = current.getHeight();
+        float lo = lower, hi = upper;
+        if (ParallelScheduler.runsInline(height)) {
+            extrapolateRows(current, prev, alpha, predicted, lo, hi, 0, height);
+        } else {
+            ParallelScheduler.forRange(height, (start, end) ->
+                    extrapolateRows(current, prev, alpha, predicted, lo, hi, start, end));
+        }
+    }
+
+    private static void extrapolateRows(FloatImage current, FloatImage prev, float alpha, FloatImage predicted,
+                                        float lo, float hi, int start, int end) {
+        int width = current.getWidth();
+        float[] x = current.getData();
+        float[] p = prev.getData();
+        float[] y = predicted.getData();
+        for (int row = start; row < end; row++) {
+            int xi = current.index(0, row);
+            int pi = prev.index(0, row);
+            int yi = predicted.index(0, row);
+            for (int i = 0; i < width; i++) {
+                float v = x[xi + i] + alpha * (x[xi + i] - p[pi + i]);
+                y[yi + i] = Math.min(hi, Math.max(lo, v));
+            }
+        }
+    }
+
+    // blurred <- observed / (blurred + eps)
+    static void ratio(FloatImage observed, FloatImage blurred) {
+        int height = observed.getHeight();
+        if (ParallelScheduler.runsInline(height)) {
+            ratioRows(observed, blurred, 0, height);
+        } else {
+            ParallelScheduler.forRange(height, (start, end) -> ratioRows(observed, blurred, start, end));
+        }
+    }
+
+    private static void ratioRows(FloatImage observed, FloatImage blurred, int start, int end) {
+        int width = observed.getWidth();
+        float[] y = observed.getData();
+        float[] b = blurred.getData();
+        for (int row = start; row < end; row++) {
+            int yi = observed.index(0, row);
+            int bi = blurred.index(0, row);
+            for (int x = 0; x < width; x++) {
+                b[bi + x] = y[yi + x] / (b[bi + x] + EPSILON);
+            }
+        }
+    }
+
+    // Bands of DEFAULT_GRAIN rows that update sums over
+    static int bands(int height) {
+        return (height + ParallelScheduler.DEFAULT_GRAIN - 1) / ParallelScheduler.DEFAULT_GRAIN;
+    }
+
+    /**
+     * correction <- clamp(start * correction), which becomes the next estimate.
+     * The same pass sums |next - current|^2 and |current|^2 for the stopping test
+     * and, when step is given, replaces it with next - start while summing
+     * <next - start, old step>, |old step|^2 and |next - start|^2.
+     * @param bandSums scratch for SUMS partial sums per band, at least SUMS * bands(height) long
+     * @param sums receives the five sums in that order
+     */
+    static void update(FloatImage start, FloatImage current, FloatImage correction, FloatImage step,
+                       float lo, float hi, double[] bandSums, double[] sums) {
+        int height = current.getHeight();
+        int grain = ParallelScheduler.DEFAULT_GRAIN;
+        if (ParallelScheduler.runsInline(height, grain)) {
+            for (int first = 0; first < height; first += grain) {
+                updateRows(start, current, correction, step, lo, hi, first, Math.min(height, first + grain),
+                        bandSums, SUMS * (first / grain));
+            }
+        } else {
+            ParallelScheduler.forRange(height, grain, (first, end) -> updateRows(start, current, correction, step,
+                    lo, hi, first, end, bandSums, SUMS * (first / grain)));
+        }
+
+        // Summed in band order, so the result does not depend on the thread count
+        Arrays.fill(sums, 0, SUMS, 0);
+        for (int b = 0, bands = bands(height); b < bands; b++) {
+            for (int k = 0; k < SUMS; k++) {
+                sums[k] += bandSums[SUMS * b + k];
+            }
+        }
+    }
+
+    // Writes the five sums of rows [first, end) to bandSums at offset
+    private static void updateRows(FloatImage start, FloatImage current, FloatImage correction, FloatImage step,
+                                   float lo, float hi, int first, int end, double[] bandSums, int offset) {
+        int width = current.getWidth();
+        float[] s = start.getData();
+        float[] x = current.getData();
+        float[] c = correction.getData();
+        float[] g = step != null ? step.getData() : null;
+        double change = 0, norm = 0, agreement = 0, history = 0, stepNorm = 0;
+        for (int row = first; row < end; row++) {
+            int si = start.index(0, row);
+            int xi = current.index(0, row);
+            int ci = correction.index(0, row);
+            for (int i = 0; i < width; i++) {
+                float v = Math.min(hi, Math.max(lo, s[si + i] * c[ci + i]));
+                c[ci + i] = v;
+                float d = v - x[xi + i];
+                change += d * d;
+                norm += x[xi + i] * x[xi + i];
+            }
+            if (g != null) {
+                int gi = step.index(0, row);
+                for (int i = 0; i < width; i++) {
+                    float delta = c[ci + i] - s[si + i];
+                    float old = g[gi + i];
+                    agreement += delta * old;
+                    history += old * old;
+                    stepNorm += delta * delta;
+                    g[gi + i] = delta;
+                }
+            }
+        }
+        bandSums[offset] = change;
+        bandSums[offset + 1] = norm;
+        bandSums[offset + 2] = agreement;
+        bandSums[offset + 3] = history;
+        bandSums[offset + 4] = stepNorm;
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.core;
+
+import ij.IJ;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import org.example.utils.FloatImage;
+import org.example.utils.FramePipeline;
+import org.example.utils.ProcessorBridge;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Deconvolves every slice of an ImageStack through a three-stage pipeline:
+ * decoding into float channels, deconvolution and encoding into the result
+ * stack run concurrently, with at most maxInFlight slices between decoding
+ * and encoding.
+ *
+ * One FrameDeconvolver per hyperstack channel serves all of that channel's
+ * slices, in order, so the PSF, OTF and processors are built once per stack
+ * and warm starts only carry a PSF between slices of the same channel. The
+ * float channel buffers of decoded slices are recycled once their slice has
+ * been deconvolved.
+ */
+public class StackDeconvolver {
+
+    private static class Slice {
+        final int index;
+        final ImageProcessor source;
+        FloatImage[] channels;
+        boolean pooled;
+        FloatImage[] results;
+
+        Slice(int index, ImageProcessor source) {
+            this.index = index;
+            this.source = source;
+        }
+    }
+
+    private final FrameDeconvolver[] deconvolvers;
+    private final int maxInFlight;
+
+    /**
+     * @param deconvolvers one per hyperstack channel; ImageJ orders slices channel
+     * first, so slice i (from 1) goes to deconvolvers[(i - 1) % deconvolvers.length]
+     */
+    public StackDeconvolver(FrameDeconvolver[] deconvolvers, int maxInFlight) {
+        this.deconvolvers = deconvolvers;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param stack input slices; they are not modified
+     * @return a stack of the same size with RGB slices for RGB input, otherwise 32-bit slices in [0,1]
+     */
+    public ImageStack process(ImageStack stack) throws Exception {
+        int size = stack.getSize();
+        ImageStack result = new ImageStack(stack.getWidth(), stack.getHeight());
+        // Channel buffers not in use by a slice; one set per slice in flight at most
+        BlockingQueue<FloatImage[]> freeBuffers = new ArrayBlockingQueue<>(maxInFlight);
+        int[] next = {0};
+
+        FramePipeline<Slice> pipeline = new FramePipeline<>(maxInFlight);
+        pipeline.run(() -> {
+            if (next[0] >= size) {
+                return null;
+            }
+            int index = ++next[0];
+            Slice slice = new Slice(index, stack.getProcessor(index));
+            // Float slices are wrapped, so only converted slices draw on the buffer pool
+            slice.pooled = !(slice.source instanceof FloatProcessor);
+            slice.channels = ProcessorBridge.toChannels(slice.source, slice.pooled ? freeBuffers.poll() : null);
+            return slice;
+        }, slice -> {
+            IJ.showStatus("ECMAD: Slice " + slice.index + " of " + size);
+            slice.results = deconvolvers[(slice.index - 1) % deconvolvers.length].deconvolve(slice.channels);
+            if (slice.pooled) {
+                freeBuffers.offer(slice.channels);
+            }
+            slice.channels = null;
+            return slice;
+        }, slice -> {
+            ImageProcessor output = ProcessorBridge.createOutput(slice.source);
+            for (int c = 0; c < slice.results.length; c++) {
+                ProcessorBridge.writeNormalized(slice.results[c], output, c);
+            }
+            // Slices leave the pipeline in order
+            result.addSlice(stack.getSliceLabel(slice.index), output);
+            IJ.showProgress(slice.index, size);
+        });
+        return result;
+    }
+}
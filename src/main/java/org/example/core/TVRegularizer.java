@@ -1,10 +1,64 @@
 package org.example.core;
 
+import org.example.utils.FloatImage;
+import org.example.utils.ParallelScheduler;
+
+import java.util.Arrays;
+
+/**
+ * Smooths an estimate with one of two solvers. Working buffers are allocated
+ * once per image size and reused by later calls, or supplied by the caller; every sweep runs over bands
+ * of rows so a pixel's neighbours are still in cache when it is updated.
+ *
+ * EXPLICIT is the original diffusion scheme u <- u + step * lambda * div(grad u)
+ * with borders held fixed. Gradient, divergence and update are fused into one
+ * sweep that reads one buffer and writes the other.
+ *
+ * PRIMAL_DUAL is the Chambolle-Pock solver for the ROF model
+ * min_u lambda * TV(u) + 1/2 ||u - f||^2, with lambda taken relative to the
+ * value range of f. It reaches a given smoothness in far fewer sweeps than the
+ * explicit scheme.
+ */
 public class TVRegularizer {
 
+    public enum Mode {
+        EXPLICIT, PRIMAL_DUAL
+    }
+
+    // Primal and dual steps with tau * sigma * ||grad||^2 <= 1, since ||grad||^2 <= 8
+    private static final float PRIMAL_DUAL_STEP = (float) (1 / Math.sqrt(8));
+
     private float lambda = 0.125f;
     private float stepSize = 0.1f;
     private int iterations = 10;
+    private Mode mode = Mode.EXPLICIT;
+    private Buffers buffers;
+
+    /**
+     * Working arrays for one image size; a caller may keep its own set, e.g. one per shape
+     */
+    public static class Buffers {
+        private final int width;
+        private final int height;
+        private float[] current;
+        private float[] next;
+        private float[] dualX;
+        private float[] dualY;
+        private float[] source;
+        private float min;
+        private float max;
+
+        public Buffers(int width, int height) {
+            this.width = width;
+            this.height = height;
+            current = new float[width * height];
+            next = new float[width * height];
+        }
+
+        public boolean fits(int width, int height) {
+            return this.width == width && this.height == height;
+        }
+    }
 
     public void setLambda(float lambda) {
         this.lambda = lambda;
@@ -18,51 +72,193 @@ public class TVRegularizer {
         this.iterations = iterations;
     }
 
-    public float[][] denoise(float[][] image) {
-        int height = image.length;
-        int width = image[0].length;
-        float[][] result = deepCopy(image);
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public FloatImage denoise(FloatImage image) {
+        return denoise(image, 1f);
+    }
+
+    /**
+     * @param image estimate to smooth, not modified
+     * @param weight factor applied to lambda, e.g. the controller's TV weight
+     * @return a new smoothed image
+     */
+    public FloatImage denoise(FloatImage image, float weight) {
+        FloatImage output = new FloatImage(image.getWidth(), image.getHeight());
+        denoise(image, weight, output);
+        return output;
+    }
+
+    /**
+     * Same as denoise, writing into an existing image
+     * @param result receives the smoothed image; same size as image, may be image itself
+     */
+    public void denoise(FloatImage image, float weight, FloatImage result) {
+        if (buffers == null || !buffers.fits(image.getWidth(), image.getHeight())) {
+            buffers = new Buffers(image.getWidth(), image.getHeight());
+        }
+        denoise(image, weight, result, buffers);
+    }
+
+    /**
+     * Same as denoise, working in the caller's buffers instead of the ones this instance keeps
+     * @param buffers working arrays sized for image
+     */
+    public void denoise(FloatImage image, float weight, FloatImage result, Buffers buffers) {
+        int width = buffers.width;
+        int height = buffers.height;
+        load(image, buffers);
+
+        float[] smoothed;
+        if (mode == Mode.PRIMAL_DUAL) {
+            smoothed = solvePrimalDual(buffers, lambda * weight * Math.max(buffers.max - buffers.min, 1e-6f));
+        } else {
+            smoothed = solveExplicit(buffers, stepSize * lambda * weight);
+        }
+
+        float[] out = result.getData();
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(smoothed, y * width, out, result.index(0, y), width);
+        }
+    }
+
+    // Copies the image into the current buffer and records its min and max
+    private static void load(FloatImage image, Buffers buffers) {
+        int width = buffers.width;
+        int height = buffers.height;
+        float[] in = image.getData();
+        float[] u = buffers.current;
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        for (int y = 0; y < height; y++) {
+            int row = image.index(0, y);
+            int o = y * width;
+            for (int x = 0; x < width; x++) {
+                float v = in[row + x];
+                u[o + x] = v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        buffers.min = min;
+        buffers.max = max;
+    }
 
+    private float[] solveExplicit(Buffers buffers, float rate) {
+        int width = buffers.width;
+        int height = buffers.height;
         for (int iter = 0; iter < iterations; iter++) {
-            float[][] gradX = new float[height][width];
-            float[][] gradY = new float[height][width];
-            float[][] div = new float[height][width];
-
-            // Compute gradients
-            for (int i = 0; i < height - 1; i++) {
-                for (int j = 0; j < width - 1; j++) {
-                    gradX[i][j] = result[i][j + 1] - result[i][j];
-                    gradY[i][j] = result[i + 1][j] - result[i][j];
-                }
+            float[] src = buffers.current;
+            float[] dst = buffers.next;
+            if (ParallelScheduler.runsInline(height)) {
+                diffuse(src, dst, rate, width, height, 0, height);
+            } else {
+                ParallelScheduler.forRange(height, (start, end) -> diffuse(src, dst, rate, width, height, start, end));
             }
+            buffers.current = dst;
+            buffers.next = src;
+        }
+        return buffers.current;
+    }
+
+    private float[] solvePrimalDual(Buffers buffers, float tvWeight) {
+        int width = buffers.width;
+        int height = buffers.height;
+        int n = width * height;
+        if (buffers.dualX == null) {
+            buffers.dualX = new float[n];
+            buffers.dualY = new float[n];
+            buffers.source = new float[n];
+        }
+        float[] f = buffers.source;
+        float[] u = buffers.current;
+        float[] bar = buffers.next;
+        float[] px = buffers.dualX, py = buffers.dualY;
+        System.arraycopy(u, 0, f, 0, n);
+        System.arraycopy(u, 0, bar, 0, n);
+        Arrays.fill(px, 0f);
+        Arrays.fill(py, 0f);
 
-            // Compute divergence
-            for (int i = 1; i < height - 1; i++) {
-                for (int j = 1; j < width - 1; j++) {
-                    float dx = gradX[i][j] - gradX[i][j - 1];
-                    float dy = gradY[i][j] - gradY[i - 1][j];
-                    div[i][j] = dx + dy;
-                }
+        float sigma = PRIMAL_DUAL_STEP;
+        float tau = PRIMAL_DUAL_STEP;
+        // Prox of tau/(2 tvWeight) ||u - f||^2 after dividing the ROF energy by tvWeight
+        float fidelity = tau / tvWeight;
+        float inv = 1f / (1f + fidelity);
+
+        for (int iter = 0; iter < iterations; iter++) {
+            // Dual ascent on the extrapolated primal, projected onto the unit ball per pixel
+            if (ParallelScheduler.runsInline(height)) {
+                ascend(bar, px, py, sigma, width, height, 0, height);
+            } else {
+                ParallelScheduler.forRange(height, (start, end) ->
+                        ascend(bar, px, py, sigma, width, height, start, end));
             }
 
-            // Update image
-            for (int i = 0; i < height; i++) {
-                for (int j = 0; j < width; j++) {
-                    result[i][j] = result[i][j] + stepSize * lambda * div[i][j];
-                }
+            // Primal descent fused with the over-relaxation bar = 2 u_new - u
+            if (ParallelScheduler.runsInline(height)) {
+                descend(u, bar, f, px, py, tau, fidelity, inv, width, height, 0, height);
+            } else {
+                ParallelScheduler.forRange(height, (start, end) ->
+                        descend(u, bar, f, px, py, tau, fidelity, inv, width, height, start, end));
             }
         }
+        return u;
+    }
 
-        return result;
+    // One explicit diffusion step from src to dst over rows [start, end)
+    private static void diffuse(float[] src, float[] dst, float rate, int width, int height, int start, int end) {
+        for (int i = start; i < end; i++) {
+            int row = i * width;
+            if (i == 0 || i == height - 1 || width < 3) {
+                System.arraycopy(src, row, dst, row, width);
+                continue;
+            }
+            dst[row] = src[row];
+            for (int j = 1; j < width - 1; j++) {
+                int k = row + j;
+                // div(grad u) with forward gradients and backward divergence: the 5-point Laplacian
+                float div = src[k + 1] + src[k - 1] + src[k + width] + src[k - width] - 4 * src[k];
+                dst[k] = src[k] + rate * div;
+            }
+            dst[row + width - 1] = src[row + width - 1];
+        }
     }
 
-    private float[][] deepCopy(float[][] input) {
-        int height = input.length;
-        int width = input[0].length;
-        float[][] copy = new float[height][width];
-        for (int i = 0; i < height; i++) {
-            System.arraycopy(input[i], 0, copy[i], 0, width);
+    private static void ascend(float[] bar, float[] px, float[] py, float sigma, int width, int height,
+                               int start, int end) {
+        for (int i = start; i < end; i++) {
+            int row = i * width;
+            for (int j = 0; j < width; j++) {
+                int k = row + j;
+                float gx = j < width - 1 ? bar[k + 1] - bar[k] : 0f;
+                float gy = i < height - 1 ? bar[k + width] - bar[k] : 0f;
+                float qx = px[k] + sigma * gx;
+                float qy = py[k] + sigma * gy;
+                float scale = 1f / Math.max(1f, (float) Math.sqrt(qx * qx + qy * qy));
+                px[k] = qx * scale;
+                py[k] = qy * scale;
+            }
+        }
+    }
+
+    private static void descend(float[] u, float[] bar, float[] f, float[] px, float[] py, float tau,
+                                float fidelity, float inv, int width, int height, int start, int end) {
+        for (int i = start; i < end; i++) {
+            int row = i * width;
+            for (int j = 0; j < width; j++) {
+                int k = row + j;
+                // div p = -grad^T p with backward differences
+                float div = (j < width - 1 ? px[k] : 0f) - (j > 0 ? px[k - 1] : 0f)
+                        + (i < height - 1 ? py[k] : 0f) - (i > 0 ? py[k - width] : 0f);
+                float updated = (u[k] + tau * div + fidelity * f[k]) * inv;
+                bar[k] = 2 * updated - u[k];
+                u[k] = updated;
+            }
         }
-        return copy;
     }
 }
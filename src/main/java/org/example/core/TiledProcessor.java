@@ -0,0 +1,220 @@
+package org.example.core;
+
+import ij.IJ;
+import org.example.utils.CompactPSF;
+import org.example.utils.FloatImage;
+import org.example.utils.ParallelScheduler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Runs an ECMADProcessor over overlapping tiles so that working memory is
+ * bounded by the tile size instead of the image size.
+ *
+ * Each tile core is extended by a guard margin that is deconvolved but then
+ * discarded (overlap-save), and neighbouring cores overlap by a blend band in
+ * which complementary linear ramps sum to one (windowed overlap-add).
+ *
+ * The tiles of one tile row are deconvolved in parallel and then blended in a
+ * fixed order, so the output does not depend on the thread count. Each worker
+ * reads its tiles from a TileSource into its own buffer and deconvolves them
+ * with its own processor, and both are reused across tiles and calls. Finished
+ * rows go to a TileSink as soon as no later tile overlaps them, so apart from
+ * the source and sink only the workers' tiles and one tile-row strip of the
+ * output are held.
+ */
+public class TiledProcessor {
+
+    /**
+     * Supplies the blurred image one region at a time; called by several workers at once
+     */
+    public interface TileSource {
+        /**
+         * Fills region with the pixels whose top left corner is at (x, y)
+         */
+        void read(int x, int y, FloatImage region);
+    }
+
+    /**
+     * Receives the deconvolved image in bands of finished rows, top to bottom,
+     * on the thread that called process
+     */
+    public interface TileSink {
+        /**
+         * @param y first image row of the band
+         * @param rows full-width band of rows; only valid during the call
+         */
+        void write(int y, FloatImage rows);
+    }
+
+    // A processor with the buffer its tiles are read into
+    private static class Worker {
+        final ECMADProcessor processor;
+        private float[] input = new float[0];
+
+        Worker(ECMADProcessor processor) {
+            this.processor = processor;
+        }
+
+        FloatImage region(int width, int height) {
+            if (input.length < width * height) {
+                input = new float[width * height];
+            }
+            return new FloatImage(width, height, input);
+        }
+    }
+
+    private final Supplier<ECMADProcessor> processorFactory;
+    // Workers not deconvolving a tile; at most one per concurrently running tile is ever created
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+    private int tileSize = 512;
+    private float energyFraction = CompactPSF.DEFAULT_ENERGY_FRACTION;
+    private int iterationsRun;
+
+    /**
+     * @param processorFactory creates the processor of each worker
+     */
+    public TiledProcessor(Supplier<ECMADProcessor> processorFactory) {
+        this.processorFactory = processorFactory;
+    }
+
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public void setEnergyFraction(float energyFraction) {
+        this.energyFraction = energyFraction;
+    }
+
+    /**
+     * @return iterations run by the last call to process, summed over its tiles
+     */
+    public int getIterationsRun() {
+        return iterationsRun;
+    }
+
+    /**
+     * Deconvolves an image held in memory tile by tile
+     * @param source the blurred image, read one tile at a time; it is not modified
+     * @param psf centred PSF, cropped to its support before use
+     * @return the deconvolved image
+     */
+    public FloatImage process(FloatImage source, FloatImage psf) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        FloatImage result = new FloatImage(width, height);
+        process((x, y, region) -> region.copyFrom(source.view(x, y, region.getWidth(), region.getHeight())),
+                (y, rows) -> result.view(0, y, width, rows.getHeight()).copyFrom(rows),
+                width, height, psf);
+        return result;
+    }
+
+    /**
+     * Deconvolves an image tile by tile, streaming it from source to sink
+     * @param source supplies the blurred image
+     * @param sink receives every row of the deconvolved image exactly once, top to bottom
+     * @param width image width
+     * @param height image height
+     * @param psf centred PSF, cropped to its support before use
+     */
+    public void process(TileSource source, TileSink sink, int width, int height, FloatImage psf) {
+        // Tile geometry follows the PSF support: ringing from the tile border
+        // stays within the guard margin and seams are blended over the support
+        CompactPSF support = CompactPSF.truncate(psf, energyFraction);
+        int radius = support.getRadius();
+        FloatImage tilePSF = support.getKernel();
+        int margin = 4 * radius;
+        int blend = 2 * radius;
+        int core = Math.max(tileSize, 2 * blend + 1);
+
+        // Output rows of the current tile row; the blend band at its bottom carries over to the next
+        FloatImage strip = new FloatImage(width, Math.min(core, height));
+        float[] out = strip.getData();
+
+        int tilesX = countTiles(width, core, blend);
+        int tilesY = countTiles(height, core, blend);
+        IJ.log("ECMAD: Tiled mode, " + tilesX + "x" + tilesY + " tiles of " + core
+                + " px (margin " + margin + ", blend " + blend + ")");
+
+        FloatImage[] deconvolved = new FloatImage[tilesX];
+        int[] tileIterations = new int[tilesX];
+        iterationsRun = 0;
+        for (int ty = 0; ty < tilesY; ty++) {
+            int y0 = ty * (core - blend);
+            int y1 = Math.min(y0 + core, height);
+            int ey0 = Math.max(0, y0 - margin), ey1 = Math.min(height, y1 + margin);
+            int rowIndex = ty;
+            IJ.log("ECMAD: Processing tile row " + (ty + 1) + " of " + tilesY);
+
+            ParallelScheduler.forRange(tilesX, 1, (start, end) -> {
+                Worker worker = idleWorkers.poll();
+                if (worker == null) {
+                    worker = new Worker(processorFactory.get());
+                }
+                try {
+                    for (int tx = start; tx < end; tx++) {
+                        int x0 = tx * (core - blend);
+                        int x1 = Math.min(x0 + core, width);
+
+                        // Extended region including the guard margin
+                        int ex0 = Math.max(0, x0 - margin), ex1 = Math.min(width, x1 + margin);
+                        FloatImage tile = worker.region(ex1 - ex0, ey1 - ey0);
+                        source.read(ex0, ey0, tile);
+
+                        IJ.log("ECMAD: Tile " + (rowIndex * tilesX + tx + 1) + " of " + (tilesX * tilesY));
+                        deconvolved[tx] = worker.processor.process(tile, tilePSF);
+                        tileIterations[tx] = worker.processor.getIterationsRun();
+                    }
+                } finally {
+                    idleWorkers.offer(worker);
+                }
+            });
+
+            // Blend in tile order so overlapping sums are independent of scheduling
+            for (int tx = 0; tx < tilesX; tx++) {
+                int x0 = tx * (core - blend);
+                int x1 = Math.min(x0 + core, width);
+                int ex0 = Math.max(0, x0 - margin);
+                FloatImage tileResult = deconvolved[tx];
+                float[] tileData = tileResult.getData();
+                for (int y = y0; y < y1; y++) {
+                    float wy = rampWeight(y, y0, y1, height, blend);
+                    int row = tileResult.index(-ex0, y - ey0);
+                    int stripRow = strip.index(0, y - y0);
+                    for (int x = x0; x < x1; x++) {
+                        float w = wy * rampWeight(x, x0, x1, width, blend);
+                        out[stripRow + x] += w * tileData[row + x];
+                    }
+                }
+                deconvolved[tx] = null;
+                iterationsRun += tileIterations[tx];
+            }
+
+            // Rows above the next tile row's blend band are final
+            int finished = ty == tilesY - 1 ? y1 : y1 - blend;
+            sink.write(y0, strip.view(0, 0, width, finished - y0));
+            if (ty < tilesY - 1) {
+                strip.view(0, 0, width, blend).copyFrom(strip.view(0, finished - y0, width, blend));
+                strip.view(0, blend, width, strip.getHeight() - blend).fill(0f);
+            }
+        }
+    }
+
+    private static int countTiles(int size, int core, int blend) {
+        if (size <= core) return 1;
+        return 1 + (size - blend - 1) / (core - blend);
+    }
+
+    // Linear ramp over the blend band on sides that have a neighbouring tile
+    private static float rampWeight(int i, int start, int end, int size, int blend) {
+        float w = 1f;
+        if (start > 0 && i < start + blend) {
+            w = Math.min(w, (i - start + 0.5f) / blend);
+        }
+        if (end < size && i >= end - blend) {
+            w = Math.min(w, (end - i - 0.5f) / blend);
+        }
+        return w;
+    }
+}
@@ -1,10 +1,17 @@
 package org.example.core;
 
-import org.example.utils.FFTUtils.*;
+import org.example.utils.FloatImage;
+import org.example.utils.OTF;
+import org.example.utils.Spectrum;
 
 import static org.example.utils.FFTUtils.fft2D;
 import static org.example.utils.FFTUtils.ifft2D;
 
+/**
+ * Wiener filter for the blur model of MatrixUtils.convolve, which correlates
+ * the image with the PSF, so estimates for an off-centre PSF line up with the
+ * blind kernel update and the residual's forward model.
+ */
 public class WienerDeconvolver {
     private float noiseToSignalRatio = 0.01f;
 
@@ -12,27 +19,34 @@ public class WienerDeconvolver {
         this.noiseToSignalRatio = ratio;
     }
 
-    public float[][] deconvolve(float[][] image, float[][] psf) {
-        int width = image[0].length;
-        int height = image.length;
+    public FloatImage deconvolve(FloatImage image, FloatImage psf) {
+        return deconvolve(image, OTF.forImage(psf, image.getWidth(), image.getHeight()));
+    }
 
-        // Forward FFT
-        Complex[][] imageFFT = fft2D(image);
-        Complex[][] psfFFT = fft2D(psf);
+    public FloatImage deconvolve(FloatImage image, OTF otf) {
+        int width = image.getWidth();
+        int height = image.getHeight();
 
-        Complex[][] resultFFT = new Complex[height][width];
+        // Forward FFT at the OTF's transform size
+        Spectrum imageFFT = fft2D(image, otf.getWidth(), otf.getHeight());
 
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                Complex H = psfFFT[i][j];
-                Complex H_conj = H.conjugate();
-                Complex numerator = imageFFT[i][j].multiply(H_conj);
-                double denom = H.magnitudeSquared() + noiseToSignalRatio;
-                resultFFT[i][j] = numerator.divide(denom);
-            }
-        }
+        // In place: imageFFT * H / (|H|^2 + NSR)
+        imageFFT.wienerFilter(otf.getTransfer(), noiseToSignalRatio, true);
 
         // Inverse FFT
-        return ifft2D(resultFFT);
+        return ifft2D(imageFFT, width, height);
+    }
+
+    /**
+     * Filters an already transformed image into existing buffers
+     * @param imageFFT spectrum of the image at the transfer function's size, not modified
+     * @param transfer the PSF's transfer function H
+     * @param work spectrum buffer of the same size
+     * @param result receives the deconvolved image, cropped to its size
+     */
+    public void deconvolve(Spectrum imageFFT, Spectrum transfer, Spectrum work, FloatImage result) {
+        work.copyFrom(imageFFT);
+        work.wienerFilter(transfer, noiseToSignalRatio, true);
+        ifft2D(work, result);
     }
 }
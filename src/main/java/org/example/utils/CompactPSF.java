@@ -0,0 +1,56 @@
+package org.example.utils;
+
+/**
+ * PSF stored only over its support: an odd-sized kernel centred at
+ * (radius, radius) that is truncated where it still holds a given fraction of
+ * the total energy. FFTUtils.psfToSpectrum and OTF wrap the compact kernel
+ * into the transform themselves, so it is never embedded in an image-sized buffer.
+ */
+public class CompactPSF {
+
+    public static final float DEFAULT_ENERGY_FRACTION = 0.99f;
+
+    private final FloatImage kernel;
+    private final int radius;
+
+    /**
+     * @param kernel normalized kernel with its centre at (width / 2, height / 2)
+     */
+    public CompactPSF(FloatImage kernel) {
+        this.kernel = kernel;
+        this.radius = Math.max(kernel.getWidth(), kernel.getHeight()) / 2;
+    }
+
+    /**
+     * Gaussian PSF truncated to the support holding energyFraction of its energy
+     */
+    public static CompactPSF gaussian(float sigma, float energyFraction) {
+        // Beyond 4 sigma a Gaussian holds less than 1e-4 of its energy per axis
+        int size = 2 * (int) Math.ceil(4 * sigma) + 1;
+        return truncate(PSFUtils.createGaussianPSF(size, size, sigma), energyFraction);
+    }
+
+    /**
+     * Crops a centred PSF of any size to its energy support and renormalizes it
+     */
+    public static CompactPSF truncate(FloatImage psf, float energyFraction) {
+        int r = Math.max(1, PSFUtils.supportRadius(psf, energyFraction));
+        return new CompactPSF(PSFUtils.crop(psf, r));
+    }
+
+    public FloatImage getKernel() {
+        return kernel;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public int getWidth() {
+        return kernel.getWidth();
+    }
+
+    public int getHeight() {
+        return kernel.getHeight();
+    }
+}
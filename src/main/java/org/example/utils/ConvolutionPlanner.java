@@ -0,0 +1,512 @@
+package org.example.utils;
+
+import ij.IJ;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single entry point for spatial convolutions. For every call it estimates the
+ * cost of the direct, separable, FFT and tiled-FFT strategies from the image
+ * and kernel shape and runs the cheapest one. All strategies give the result
+ * of MatrixUtils.convolveDirect (a correlation) with the requested boundary,
+ * up to rounding and the decomposition tolerance.
+ *
+ * The cost coefficients default to typical values and can be measured once
+ * with {@link #calibrate()}. Each distinct plan is logged the first time it is used.
+ * Callers that convolve the same shapes repeatedly can keep a Plan and run it
+ * with {@link #execute}; scratch buffers come from the shared FFTPlanCache, so
+ * repeated runs do not allocate image-sized memory. Tiles are transformed at
+ * power of 2 sizes, which JTransformsBackend transforms without allocating.
+ */
+public class ConvolutionPlanner {
+
+    public enum Strategy {
+        DIRECT, SEPARABLE, FFT, TILED_FFT
+    }
+
+    /**
+     * Chosen strategy with its estimated cost. FFT plans keep the last kernel
+     * spectrum they used, so a plan reused with the same kernel transforms it once;
+     * a changed kernel is transformed into the same buffer.
+     */
+    public static class Plan {
+        private final Strategy strategy;
+        private final double cost;
+        private final KernelDecomposition decomposition;
+        private final int tileSize;
+        // Guarded by the plan's lock
+        private KernelTransform transform;
+
+        Plan(Strategy strategy, double cost, KernelDecomposition decomposition, int tileSize) {
+            this.strategy = strategy;
+            this.cost = cost;
+            this.decomposition = decomposition;
+            this.tileSize = tileSize;
+        }
+
+        public Strategy getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * @return estimated run time in nanoseconds
+         */
+        public double getCost() {
+            return cost;
+        }
+
+        /**
+         * @return side of the power of 2 tile transforms of TILED_FFT plans, otherwise 0
+         */
+        public int getTileSize() {
+            return tileSize;
+        }
+
+        @Override
+        public String toString() {
+            String detail = strategy == Strategy.SEPARABLE ? " rank " + decomposition.getRank()
+                    : strategy == Strategy.TILED_FFT ? " tile " + tileSize : "";
+            return strategy + detail + String.format(Locale.ROOT, " (est. %.2f ms)", cost / 1e6);
+        }
+    }
+
+    // Transform sides of the tiles; each tile yields the side minus the kernel's apron
+    private static final int[] TILE_SIZES = {128, 256, 512, 1024};
+    private static final int MAX_LOGGED_PLANS = 256;
+
+    // Nanoseconds per multiply-add of the direct and separable loops
+    private static volatile double directTapCost = 0.8;
+    private static volatile double separableTapCost = 0.6;
+    // Nanoseconds per n log2 n of one real transform of n samples
+    private static volatile double fftCost = 1.5;
+    // Nanoseconds per transform sample for padding, spectrum product and cropping
+    private static volatile double fftPointCost = 6.0;
+    private static volatile boolean calibrated;
+
+    private static final Map<String, Boolean> loggedPlans = new ConcurrentHashMap<>();
+    private static volatile CachedDecomposition lastDecomposition;
+
+    public static FloatImage convolve(FloatImage image, FloatImage kernel, SeparableConvolver.Boundary boundary) {
+        FloatImage result = new FloatImage(image.getWidth(), image.getHeight());
+        convolve(image, kernel, boundary, result);
+        return result;
+    }
+
+    /**
+     * @param result output of the same size as image; must not share pixels with it
+     */
+    public static void convolve(FloatImage image, FloatImage kernel, SeparableConvolver.Boundary boundary,
+                                FloatImage result) {
+        Plan plan = plan(image.getWidth(), image.getHeight(), kernel);
+        log(image, kernel, plan);
+        // The plan is dropped after this call, so the kernel transform is not kept on it
+        run(plan, image, kernel, boundary, result, false);
+    }
+
+    /**
+     * Runs a plan made for this image size and kernel. A plan may be run by several
+     * threads at once only with the same kernel.
+     * @param plan result of {@link #plan} for image's size and kernel, or for its size
+     * and the kernel's shape
+     * @param result output of the same size as image; must not share pixels with it
+     */
+    public static void execute(Plan plan, FloatImage image, FloatImage kernel, SeparableConvolver.Boundary boundary,
+                               FloatImage result) {
+        run(plan, image, kernel, boundary, result, true);
+    }
+
+    /**
+     * @param keepTransfer cache the kernel transform on the plan; otherwise it goes to a pooled buffer
+     */
+    private static void run(Plan plan, FloatImage image, FloatImage kernel, SeparableConvolver.Boundary boundary,
+                            FloatImage result, boolean keepTransfer) {
+        switch (plan.strategy) {
+            case SEPARABLE:
+                convolveSeparable(image, plan.decomposition, boundary, result);
+                break;
+            case FFT:
+            case TILED_FFT:
+                convolveFFT(image, kernel, boundary, plan, keepTransfer, result);
+                break;
+            default:
+                MatrixUtils.convolveDirect(image, kernel, boundary, result);
+        }
+    }
+
+    /**
+     * @return the cheapest strategy for an image of the given size and this kernel
+     */
+    public static Plan plan(int width, int height, FloatImage kernel) {
+        return plan(width, height, kernel, null);
+    }
+
+    /**
+     * @param strategy the strategy to use, or null to pick the cheapest
+     * @return the cheapest plan using that strategy; whole-frame FFT when tiles do not fit the kernel
+     */
+    public static Plan plan(int width, int height, FloatImage kernel, Strategy strategy) {
+        int kw = kernel.getWidth(), kh = kernel.getHeight();
+        double pixels = (double) width * height;
+
+        if (strategy == Strategy.SEPARABLE) {
+            KernelDecomposition decomposition = decompose(kernel);
+            return new Plan(Strategy.SEPARABLE, separableCost(pixels, decomposition.getRank(), kw, kh), decomposition, 0);
+        }
+        Plan best = plan(width, height, kw, kh, strategy);
+        // The decomposition is only worth computing if even a rank-1 pass could win
+        if (strategy == null && kw + kh < kw * kh && separableCost(pixels, 1, kw, kh) < best.cost) {
+            KernelDecomposition decomposition = decompose(kernel);
+            if (decomposition.isCheaperThanDirect()) {
+                double cost = separableCost(pixels, decomposition.getRank(), kw, kh);
+                best = cheaper(best, new Plan(Strategy.SEPARABLE, cost, decomposition, 0));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Plans for any kernel of the given shape, e.g. one that changes between runs.
+     * A decomposition only holds for one kernel, so the plan is never separable.
+     * @return the cheapest direct, FFT or tiled-FFT plan
+     */
+    public static Plan plan(int width, int height, int kernelWidth, int kernelHeight) {
+        return plan(width, height, kernelWidth, kernelHeight, null);
+    }
+
+    private static Plan plan(int width, int height, int kw, int kh, Strategy strategy) {
+        double pixels = (double) width * height;
+
+        Plan best = null;
+        if (strategy == null || strategy == Strategy.DIRECT) {
+            best = new Plan(Strategy.DIRECT, pixels * kw * kh * directTapCost, null, 0);
+        }
+
+        if (strategy == null || strategy == Strategy.FFT) {
+            // Whole frame: kernel, forward and inverse transforms of the padded image
+            double fft = fftFrameCost(width + kw - 1, height + kh - 1, 3);
+            best = cheaper(best, new Plan(Strategy.FFT, fft, null, 0));
+        }
+
+        if (strategy == null || strategy == Strategy.TILED_FFT) {
+            // Overlap-save tiles: one kernel transform plus two transforms per tile
+            for (int size : TILE_SIZES) {
+                int tileW = size - kw + 1, tileH = size - kh + 1;
+                // Tiles smaller than the kernel would spend most of each transform on the apron
+                if (tileW < kw || tileH < kh) continue;
+                int tilesX = (width + tileW - 1) / tileW;
+                int tilesY = (height + tileH - 1) / tileH;
+                double cost = fftFrameCost(size, size, 1) + (double) tilesX * tilesY * fftFrameCost(size, size, 2);
+                best = cheaper(best, new Plan(Strategy.TILED_FFT, cost, null, size));
+                if (tilesX * tilesY == 1) break;
+            }
+            if (best == null) {
+                best = plan(width, height, kw, kh, Strategy.FFT);
+            }
+        }
+        return best;
+    }
+
+    private static double separableCost(double pixels, int rank, int kw, int kh) {
+        return pixels * rank * (kw + kh) * separableTapCost;
+    }
+
+    // The last decomposition is kept, since callers usually plan the same kernel repeatedly
+    private static KernelDecomposition decompose(FloatImage kernel) {
+        CachedDecomposition cached = lastDecomposition;
+        if (cached != null && cached.matches(kernel)) {
+            return cached.decomposition;
+        }
+        KernelDecomposition decomposition = KernelDecomposition.of(kernel, KernelDecomposition.DEFAULT_TOLERANCE);
+        lastDecomposition = new CachedDecomposition(kernel, decomposition);
+        return decomposition;
+    }
+
+    private static Plan cheaper(Plan best, Plan candidate) {
+        return best == null || candidate.cost < best.cost ? candidate : best;
+    }
+
+    private static double fftFrameCost(int width, int height, int transforms) {
+        FFTBackend backend = FFTUtils.getBackend();
+        double n = (double) backend.paddedWidth(width, height) * backend.paddedHeight(width, height);
+        return transforms * n * (Math.log(n) / Math.log(2)) * fftCost + n * fftPointCost;
+    }
+
+    /**
+     * Measures the cost coefficients on this machine; takes well under a second
+     */
+    public static synchronized void calibrate() {
+        int size = 256;
+        FloatImage image = new FloatImage(size, size);
+        Random random = new Random(1);
+        for (int i = 0; i < size * size; i++) {
+            image.getData()[i] = random.nextFloat();
+        }
+        FloatImage kernel = PSFUtils.createGaussianPSF(9, 9, 2f);
+        KernelDecomposition decomposition = KernelDecomposition.of(kernel, KernelDecomposition.DEFAULT_TOLERANCE);
+        double pixels = size * size;
+
+        double direct = time(() -> MatrixUtils.convolveDirect(image, kernel, SeparableConvolver.Boundary.ZERO));
+        double separable = time(() -> SeparableConvolver.convolve(image, decomposition, SeparableConvolver.Boundary.ZERO));
+        Plan fftPlan = plan(size, size, kernel, Strategy.FFT);
+        double fft = time(() -> execute(fftPlan, image, kernel, SeparableConvolver.Boundary.ZERO,
+                new FloatImage(size, size)));
+
+        directTapCost = direct / (pixels * 81);
+        separableTapCost = separable / (pixels * 18);
+        // The kernel spectrum is cached after the warm-up run, so two transforms are timed;
+        // the time is attributed to transform and pointwise work in the default proportion
+        double model = fftFrameCost(size + 8, size + 8, 2);
+        double scale = fft / model;
+        fftCost *= scale;
+        fftPointCost *= scale;
+        calibrated = true;
+
+        IJ.log(String.format(Locale.ROOT,
+                "ECMAD: Convolution costs calibrated: direct %.3f ns/tap, separable %.3f ns/tap, FFT x%.2f",
+                directTapCost, separableTapCost, scale));
+    }
+
+    /**
+     * Runs {@link #calibrate()} unless it has already run
+     */
+    public static void calibrateOnce() {
+        if (!calibrated) {
+            calibrate();
+        }
+    }
+
+    private static double time(Runnable task) {
+        // Let the JIT compile the loops before measuring
+        for (int i = 0; i < 3; i++) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void log(FloatImage image, FloatImage kernel, Plan plan) {
+        String key = image.getWidth() + "x" + image.getHeight() + " * " + kernel.getWidth() + "x" + kernel.getHeight()
+                + " -> " + plan.strategy + " " + plan.tileSize;
+        if (loggedPlans.size() < MAX_LOGGED_PLANS && loggedPlans.putIfAbsent(key, Boolean.TRUE) == null) {
+            IJ.log("ECMAD: Convolution " + image.getWidth() + "x" + image.getHeight() + " with "
+                    + kernel.getWidth() + "x" + kernel.getHeight() + " kernel: " + plan);
+        }
+    }
+
+    private static void convolveSeparable(FloatImage image, KernelDecomposition decomposition,
+                                          SeparableConvolver.Boundary boundary, FloatImage result) {
+        int width = image.getWidth(), height = image.getHeight();
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        FloatImage temp = cache.pollWorkspace(height, width, FloatImage.class);
+        if (temp == null) {
+            temp = new FloatImage(width, height);
+        }
+        try {
+            SeparableConvolver.convolve(image, decomposition, boundary, result, temp);
+        } finally {
+            cache.releaseWorkspace(height, width, temp);
+        }
+    }
+
+    /**
+     * FFT correlation over tiles; whole-frame plans use a single tile. Each tile
+     * reads a kernel-sized apron around it with the boundary rule applied, so the
+     * circular transform never wraps into the result.
+     */
+    private static void convolveFFT(FloatImage image, FloatImage kernel, SeparableConvolver.Boundary boundary,
+                                    Plan plan, boolean keepTransfer, FloatImage result) {
+        int width = image.getWidth(), height = image.getHeight();
+        int kw = kernel.getWidth(), kh = kernel.getHeight();
+        int padW = kw / 2, padH = kh / 2;
+        int tileW, tileH, transformW, transformH;
+        if (plan.strategy == Strategy.TILED_FFT) {
+            tileW = plan.tileSize - kw + 1;
+            tileH = plan.tileSize - kh + 1;
+            if (tileW < 1 || tileH < 1) {
+                throw new IllegalArgumentException("Tiles of " + plan.tileSize + " do not fit a "
+                        + kw + "x" + kh + " kernel");
+            }
+            transformW = transformH = plan.tileSize;
+        } else {
+            FFTBackend backend = FFTUtils.getBackend();
+            tileW = width;
+            tileH = height;
+            transformW = backend.paddedWidth(width + kw - 1, height + kh - 1);
+            transformH = backend.paddedHeight(width + kw - 1, height + kh - 1);
+        }
+        int tilesX = (width + tileW - 1) / tileW;
+        int tilesY = (height + tileH - 1) / tileH;
+        int apronW = Math.min(tileW, width) + kw - 1;
+        int apronH = Math.min(tileH, height) + kh - 1;
+
+        // All tiles share one transform size, so the kernel is transformed once
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        KernelTransform pooled = null;
+        Spectrum transfer;
+        if (keepTransfer) {
+            synchronized (plan) {
+                if (plan.transform == null || !plan.transform.fits(transformW, transformH)) {
+                    plan.transform = new KernelTransform(transformW, transformH);
+                }
+                transfer = plan.transform.load(kernel);
+            }
+        } else {
+            pooled = cache.pollWorkspace(apronH, apronW, KernelTransform.class);
+            if (pooled == null || !pooled.fits(transformW, transformH)) {
+                pooled = new KernelTransform(transformW, transformH);
+            }
+            transfer = pooled.load(kernel);
+        }
+
+        try {
+            convolveTiles(image, boundary, tileW, tileH, tilesX, tilesY, padW, padH, apronW, apronH, transfer, result);
+        } finally {
+            if (pooled != null) {
+                cache.releaseWorkspace(apronH, apronW, pooled);
+            }
+        }
+    }
+
+    private static void convolveTiles(FloatImage image, SeparableConvolver.Boundary boundary, int tileW, int tileH,
+                                      int tilesX, int tilesY, int padW, int padH, int apronW, int apronH,
+                                      Spectrum transfer, FloatImage result) {
+        int tiles = tilesX * tilesY;
+        if (ParallelScheduler.runsInline(tiles, 1)) {
+            filterTiles(image, boundary, tileW, tileH, tilesX, padW, padH, apronW, apronH, transfer, result, 0, tiles);
+        } else {
+            ParallelScheduler.forRange(tiles, 1, (start, end) -> filterTiles(image, boundary, tileW, tileH, tilesX,
+                    padW, padH, apronW, apronH, transfer, result, start, end));
+        }
+    }
+
+    // Tiles [start, end) in row-major tile order, through one pooled tile workspace
+    private static void filterTiles(FloatImage image, SeparableConvolver.Boundary boundary, int tileW, int tileH,
+                                    int tilesX, int padW, int padH, int apronW, int apronH,
+                                    Spectrum transfer, FloatImage result, int start, int end) {
+        int width = image.getWidth(), height = image.getHeight();
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        TileWorkspace workspace = cache.pollWorkspace(apronH, apronW, TileWorkspace.class);
+        if (workspace == null || !workspace.fits(transfer)) {
+            workspace = new TileWorkspace(apronW, apronH, transfer);
+        }
+        float[] filtered = workspace.filtered.getData();
+        float[] out = result.getData();
+        try {
+            for (int t = start; t < end; t++) {
+                int x0 = (t % tilesX) * tileW, y0 = (t / tilesX) * tileH;
+                int cw = Math.min(tileW, width - x0), ch = Math.min(tileH, height - y0);
+
+                fillApron(image, x0 - padW, y0 - padH, boundary, workspace.apron);
+                FFTUtils.fft2D(workspace.apron, workspace.spectrum);
+                workspace.spectrum.conjugateMultiply(transfer);
+                FFTUtils.ifft2D(workspace.spectrum, workspace.filtered);
+                for (int v = 0; v < ch; v++) {
+                    System.arraycopy(filtered, workspace.filtered.index(padW, padH + v),
+                            out, result.index(x0, y0 + v), cw);
+                }
+            }
+        } finally {
+            cache.releaseWorkspace(apronH, apronW, workspace);
+        }
+    }
+
+    // Buffers for one tile; pooled by apron size
+    private static class TileWorkspace {
+        final FloatImage apron;
+        final Spectrum spectrum;
+        final FloatImage filtered;
+
+        TileWorkspace(int apronW, int apronH, Spectrum transferShape) {
+            apron = new FloatImage(apronW, apronH);
+            spectrum = new Spectrum(transferShape.getWidth(), transferShape.getHeight());
+            filtered = new FloatImage(apronW, apronH);
+        }
+
+        // The backend, and with it the transform size, may change between runs
+        boolean fits(Spectrum transferShape) {
+            return spectrum.getWidth() == transferShape.getWidth() && spectrum.getHeight() == transferShape.getHeight();
+        }
+    }
+
+    // Decomposition together with a copy of the kernel it was computed from
+    private static class CachedDecomposition {
+        final FloatImage kernel;
+        final int kernelHash;
+        final KernelDecomposition decomposition;
+
+        CachedDecomposition(FloatImage kernel, KernelDecomposition decomposition) {
+            this.kernel = kernel.copy();
+            this.kernelHash = OTF.hashPSF(kernel);
+            this.decomposition = decomposition;
+        }
+
+        boolean matches(FloatImage other) {
+            return other.sameShape(kernel) && OTF.hashPSF(other) == kernelHash && other.contentEquals(kernel);
+        }
+    }
+
+    // Spectrum of the last kernel transformed at one transform size, reused while the kernel is unchanged
+    private static class KernelTransform {
+        final Spectrum transfer;
+        // Copy of the kernel the spectrum was computed from, null until the first load
+        private FloatImage kernel;
+        private int kernelHash;
+
+        KernelTransform(int transformW, int transformH) {
+            transfer = new Spectrum(transformW, transformH);
+        }
+
+        boolean fits(int transformW, int transformH) {
+            return transfer.getWidth() == transformW && transfer.getHeight() == transformH;
+        }
+
+        Spectrum load(FloatImage kernel) {
+            int hash = OTF.hashPSF(kernel);
+            if (this.kernel == null || hash != kernelHash || !kernel.contentEquals(this.kernel)) {
+                FFTUtils.psfToSpectrum(kernel, transfer);
+                if (this.kernel == null || !this.kernel.sameShape(kernel)) {
+                    this.kernel = new FloatImage(kernel.getWidth(), kernel.getHeight());
+                }
+                this.kernel.copyFrom(kernel);
+                kernelHash = hash;
+            }
+            return transfer;
+        }
+    }
+
+    // Copies image pixels starting at (x0, y0) into apron, applying the boundary rule outside the image
+    private static void fillApron(FloatImage image, int x0, int y0, SeparableConvolver.Boundary boundary,
+                                  FloatImage apron) {
+        int width = image.getWidth(), height = image.getHeight();
+        float[] in = image.getData();
+        float[] out = apron.getData();
+        boolean clamp = boundary == SeparableConvolver.Boundary.CLAMP;
+
+        for (int v = 0; v < apron.getHeight(); v++) {
+            int y = y0 + v;
+            int row = apron.index(0, v);
+            if ((y < 0 || y >= height) && !clamp) {
+                Arrays.fill(out, row, row + apron.getWidth(), 0f);
+                continue;
+            }
+            int src = image.index(0, Math.max(0, Math.min(height - 1, y)));
+            for (int u = 0; u < apron.getWidth(); u++) {
+                int x = x0 + u;
+                if (x >= 0 && x < width) {
+                    out[row + u] = in[src + x];
+                } else {
+                    out[row + u] = clamp ? in[src + Math.max(0, Math.min(width - 1, x))] : 0f;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.utils;
+
+/**
+ * A 2D real-to-complex FFT implementation used by {@link FFTUtils}.
+ */
+public interface FFTBackend {
+
+    /**
+     * @param width image width
+     * @param height image height
+     * @return transform width this backend uses for an image of the given size
+     */
+    int paddedWidth(int width, int height);
+
+    /**
+     * @param width image width
+     * @param height image height
+     * @return transform height this backend uses for an image of the given size
+     */
+    int paddedHeight(int width, int height);
+
+    /**
+     * Forward transform of real samples into a full complex spectrum
+     * @param pixels row-major real samples sized to the spectrum, may be overwritten
+     * @param out spectrum receiving the result; its size is the transform size
+     */
+    void forward(float[] pixels, Spectrum out);
+
+    /**
+     * Inverse transform keeping the real part; the spectrum is left unchanged
+     * @param in spectrum to invert
+     * @param pixels row-major array of the spectrum's size receiving the result
+     */
+    void inverse(Spectrum in, float[] pixels);
+}
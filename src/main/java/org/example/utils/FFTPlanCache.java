@@ -0,0 +1,207 @@
+package org.example.utils;
+
+import org.jtransforms.fft.FloatFFT_2D;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, thread-safe cache of FFT plans and reusable workspace buffers keyed
+ * by transform shape. Least recently used shapes are evicted once
+ * the cache is full.
+ *
+ * Plans are shared between threads; workspaces are handed out exclusively by
+ * the acquire methods and must be given back with the matching release method.
+ * Lookups that hit do not allocate; hot paths use findPlan and pollWorkspace,
+ * which do not need a factory object.
+ */
+public class FFTPlanCache {
+
+    private static final FFTPlanCache SHARED = new FFTPlanCache(16, 4);
+
+    private final int maxWorkspacesPerShape;
+    private final Map<Key, ShapeEntry> entries;
+    // Reused for lookups under the lock; entries get their own key
+    private final Key probe = new Key(0, 0);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxShapes number of distinct transform shapes kept before LRU eviction
+     * @param maxWorkspacesPerShape number of idle workspaces of each type retained per shape
+     */
+    public FFTPlanCache(int maxShapes, int maxWorkspacesPerShape) {
+        this.maxWorkspacesPerShape = maxWorkspacesPerShape;
+        this.entries = new LinkedHashMap<Key, ShapeEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ShapeEntry> eldest) {
+                if (size() > maxShapes) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static FFTPlanCache getShared() {
+        return SHARED;
+    }
+
+    public FloatFFT_2D getFloatPlan(int height, int width) {
+        FloatFFT_2D plan = findPlan(height, width, FloatFFT_2D.class);
+        return plan != null ? plan
+                : getPlan(height, width, FloatFFT_2D.class, () -> new FloatFFT_2D(height, width));
+    }
+
+    /**
+     * Borrows an interleaved complex buffer of 2 * height * width floats
+     * @param height transform height
+     * @param width transform width
+     * @return a buffer with undefined contents
+     */
+    public float[] acquireFloatBuffer(int height, int width) {
+        float[] buffer = pollWorkspace(height, width, float[].class);
+        return buffer != null ? buffer : new float[2 * height * width];
+    }
+
+    public void releaseFloatBuffer(int height, int width, float[] buffer) {
+        releaseWorkspace(height, width, buffer);
+    }
+
+    /**
+     * Returns the shared plan of the given type for a shape, creating it on the first request.
+     * A shape can hold one plan of each type.
+     * @param factory creates the plan on a miss; the plan must be safe to share
+     * @return the cached plan
+     */
+    public synchronized <T> T getPlan(int height, int width, Class<T> type, Supplier<T> factory) {
+        T plan = findPlan(height, width, type);
+        if (plan == null) {
+            misses++;
+            plan = factory.get();
+            entry(height, width).plans.add(plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return the cached plan of the given type for a shape, or null if there is none yet
+     */
+    public synchronized <T> T findPlan(int height, int width, Class<T> type) {
+        ArrayList<Object> plans = entry(height, width).plans;
+        for (int i = 0; i < plans.size(); i++) {
+            Object plan = plans.get(i);
+            if (type.isInstance(plan)) {
+                hits++;
+                return type.cast(plan);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Borrows an idle workspace of the given type for a shape, creating one if none is idle
+     * @param factory creates the workspace on a miss
+     * @return a workspace owned by the caller until it is released
+     */
+    public <T> T acquireWorkspace(int height, int width, Class<T> type, Supplier<T> factory) {
+        T workspace = pollWorkspace(height, width, type);
+        return workspace != null ? workspace : factory.get();
+    }
+
+    /**
+     * Borrows an idle workspace of the given type for a shape
+     * @return a workspace owned by the caller until it is released, or null if none is idle
+     */
+    public synchronized <T> T pollWorkspace(int height, int width, Class<T> type) {
+        ArrayList<Object> workspaces = entry(height, width).workspaces;
+        // Most recently released first
+        for (int i = workspaces.size() - 1; i >= 0; i--) {
+            Object workspace = workspaces.get(i);
+            if (type.isInstance(workspace)) {
+                workspaces.remove(i);
+                hits++;
+                return type.cast(workspace);
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    public synchronized void releaseWorkspace(int height, int width, Object workspace) {
+        ShapeEntry entry = entry(height, width);
+        int idle = 0;
+        for (int i = 0; i < entry.workspaces.size(); i++) {
+            if (entry.workspaces.get(i).getClass() == workspace.getClass()) idle++;
+        }
+        if (idle < maxWorkspacesPerShape) {
+            entry.workspaces.add(workspace);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private ShapeEntry entry(int height, int width) {
+        probe.height = height;
+        probe.width = width;
+        ShapeEntry entry = entries.get(probe);
+        if (entry == null) {
+            entry = new ShapeEntry();
+            entries.put(new Key(height, width), entry);
+        }
+        return entry;
+    }
+
+    private static final class ShapeEntry {
+        final ArrayList<Object> plans = new ArrayList<>(1);
+        final ArrayList<Object> workspaces = new ArrayList<>();
+    }
+
+    private static final class Key {
+        // Only the probe key is ever changed
+        int height;
+        int width;
+
+        Key(int height, int width) {
+            this.height = height;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return height == k.height && width == k.width;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * height + width;
+        }
+    }
+}
@@ -1,141 +1,167 @@
 package org.example.utils;
 
-import ij.process.FHT;
-import ij.process.FloatProcessor;
-import ij.process.ImageProcessor;
+import java.util.Arrays;
 
 public class FFTUtils {
 
-    /**
-     * Performs 2D FFT using ImageJ's built-in transformation
-     * @param input 2D array of float values
-     * @return 2D array of Complex values representing the frequency domain
-     */
-    public static Complex[][] fft2D(float[][] input) {
-        int height = input.length;
-        int width = input[0].length;
-
-        // ImageJ's FHT requires dimensions to be powers of 2
-        int powerOf2Size = findNextPowerOf2(Math.max(width, height));
-
-        // Create FloatProcessor with the input data
-        FloatProcessor fp = new FloatProcessor(width, height);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                fp.setf(x, y, input[y][x]);
-            }
-        }
-
-        // Pad to power of 2 size
-        ImageProcessor paddedIp = fp.resize(powerOf2Size, powerOf2Size);
+    private static final int[] SMOOTH_FACTORS = {2, 3, 5, 7};
 
-        // Create FHT and transform
-        FHT fht = new FHT(paddedIp);
-        fht.transform();
+    private static volatile FFTBackend backend = new JTransformsBackend();
 
-        // Convert FHT to complex representation
-        Complex[][] output = new Complex[height][width];
-
-        // ImageJ's FHT stores data in a specific format that needs to be processed
-        // to get true complex FFT values
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                float real = fht.getPixelValue(x, y);
-
-                // In a complete implementation, we would compute the imaginary part correctly
-                // This is a simplified approach and doesn't give exact complex values
-                float imag = 0;
-
-                output[y][x] = new Complex(real, imag);
-            }
-        }
+    /**
+     * Selects the FFT implementation used by all transforms
+     * @param fftBackend the backend, e.g. {@link JTransformsBackend} or {@link FHTBackend}
+     */
+    public static void setBackend(FFTBackend fftBackend) {
+        backend = fftBackend;
+    }
 
-        return output;
+    public static FFTBackend getBackend() {
+        return backend;
     }
 
     /**
-     * Performs 2D inverse FFT using ImageJ's built-in transformation
-     * @param input 2D array of Complex values representing the frequency domain
-     * @return 2D array of float values representing the spatial domain
+     * Performs 2D FFT using the selected backend
+     * @param input spatial image
+     * @return spectrum of the zero-padded input at the backend's transform size
      */
-    public static float[][] ifft2D(Complex[][] input) {
-        int height = input.length;
-        int width = input[0].length;
-
-        // ImageJ's FHT requires dimensions to be powers of 2
-        int powerOf2Size = findNextPowerOf2(Math.max(width, height));
+    public static Spectrum fft2D(FloatImage input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        FFTBackend b = backend;
+        return fft2D(input, b.paddedWidth(width, height), b.paddedHeight(width, height));
+    }
 
-        // Create a new FHT object
-        FloatProcessor fp = new FloatProcessor(powerOf2Size, powerOf2Size);
+    /**
+     * Performs 2D FFT of the input zero-padded to the given transform size
+     * @param input spatial image
+     * @param width transform width, at least the input width
+     * @param height transform height, at least the input height
+     * @return spectrum of the zero-padded input
+     */
+    public static Spectrum fft2D(FloatImage input, int width, int height) {
+        Spectrum spectrum = new Spectrum(width, height);
+        fft2D(input, spectrum);
+        return spectrum;
+    }
 
-        // Fill with the real part of the input complex data
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                fp.setf(x, y, input[y][x].real);
+    /**
+     * Performs 2D FFT of the input zero-padded to the size of an existing spectrum buffer
+     * @param input spatial image, at most the spectrum size
+     * @param out spectrum receiving the transform
+     */
+    public static void fft2D(FloatImage input, Spectrum out) {
+        int width = out.getWidth();
+        int height = out.getHeight();
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        float[] pixels = cache.acquireFloatBuffer(height, width);
+        try {
+            Arrays.fill(pixels, 0, width * height, 0f);
+            float[] data = input.getData();
+            for (int y = 0; y < input.getHeight(); y++) {
+                System.arraycopy(data, input.index(0, y), pixels, y * width, input.getWidth());
             }
+            backend.forward(pixels, out);
+        } finally {
+            cache.releaseFloatBuffer(height, width, pixels);
         }
+    }
 
-        FHT fht = new FHT(fp);
-
-        // Perform inverse transform
-        fht.inverseTransform();
+    /**
+     * Transforms a centred PSF into its optical transfer function. The PSF centre
+     * is moved to the origin with wrap-around so that filtering does not shift the image.
+     * @param psf PSF with its centre at (width / 2, height / 2)
+     * @param width transform width
+     * @param height transform height
+     * @return the optical transfer function
+     */
+    public static Spectrum psfToSpectrum(FloatImage psf, int width, int height) {
+        Spectrum spectrum = new Spectrum(width, height);
+        psfToSpectrum(psf, spectrum);
+        return spectrum;
+    }
 
-        // Extract results
-        float[][] output = new float[height][width];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                output[y][x] = fht.getPixelValue(x, y);
+    /**
+     * Transforms a centred PSF into an existing spectrum buffer
+     * @param psf PSF with its centre at (width / 2, height / 2)
+     * @param out spectrum receiving the optical transfer function
+     */
+    public static void psfToSpectrum(FloatImage psf, Spectrum out) {
+        int width = out.getWidth();
+        int height = out.getHeight();
+        int kh = psf.getHeight(), kw = psf.getWidth();
+        int padH = kh / 2, padW = kw / 2;
+
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        float[] pixels = cache.acquireFloatBuffer(height, width);
+        try {
+            Arrays.fill(pixels, 0, width * height, 0f);
+            for (int i = 0; i < kh; i++) {
+                int y = Math.floorMod(i - padH, height);
+                for (int j = 0; j < kw; j++) {
+                    int x = Math.floorMod(j - padW, width);
+                    pixels[y * width + x] += psf.get(j, i);
+                }
             }
+            backend.forward(pixels, out);
+        } finally {
+            cache.releaseFloatBuffer(height, width, pixels);
         }
-
-        return output;
     }
 
     /**
-     * Find the next power of 2 greater than or equal to n
-     * @param n the value to find the next power of 2 for
-     * @return the next power of 2
+     * Performs 2D inverse FFT using the selected backend
+     * @param input spectrum in the frequency domain
+     * @param width width of the spatial result, at most the spectrum width
+     * @param height height of the spatial result, at most the spectrum height
+     * @return the spatial domain image
      */
-    private static int findNextPowerOf2(int n) {
-        int power = 1;
-        while (power < n) {
-            power *= 2;
-        }
-        return power;
+    public static FloatImage ifft2D(Spectrum input, int width, int height) {
+        FloatImage output = new FloatImage(width, height);
+        ifft2D(input, output);
+        return output;
     }
 
-    public static class Complex {
-        public float real;
-        public float imag;
-
-        public Complex(float real, float imag) {
-            this.real = real;
-            this.imag = imag;
-        }
-
-        public Complex conjugate() {
-            return new Complex(real, -imag);
-        }
-
-        public Complex multiply(Complex other) {
-            return new Complex(
-                    real * other.real - imag * other.imag,
-                    real * other.imag + imag * other.real
-            );
-        }
-
-        public Complex divide(double scalar) {
-            return new Complex((float)(real / scalar), (float)(imag / scalar));
-        }
-
-        public double magnitudeSquared() {
-            return real * real + imag * imag;
+    /**
+     * Performs 2D inverse FFT into an existing image, cropping to its size
+     * @param input spectrum in the frequency domain
+     * @param output image receiving the spatial domain values
+     */
+    public static void ifft2D(Spectrum input, FloatImage output) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        float[] pixels = cache.acquireFloatBuffer(height, width);
+        try {
+            backend.inverse(input, pixels);
+            float[] data = output.getData();
+            for (int y = 0; y < output.getHeight(); y++) {
+                System.arraycopy(pixels, y * width, data, output.index(0, y), output.getWidth());
+            }
+        } finally {
+            cache.releaseFloatBuffer(height, width, pixels);
         }
     }
 
     /**
-     * For a more accurate FFT implementation, you might want to consider
-     * directly using the FHT class with proper conversion to real/imaginary components
-     * using the methods demonstrated in ImageJ's FFT plugin code
+     * Find the smallest size greater than or equal to n whose only prime
+     * factors are 2, 3, 5 and 7
+     * @param n the minimum size
+     * @return the next 7-smooth size
      */
-}
\ No newline at end of file
+    public static int nextSmoothSize(int n) {
+        int size = Math.max(1, n);
+        while (true) {
+            int m = size;
+            for (int p : SMOOTH_FACTORS) {
+                while (m % p == 0) {
+                    m /= p;
+                }
+            }
+            if (m == 1) {
+                return size;
+            }
+            size++;
+        }
+    }
+}
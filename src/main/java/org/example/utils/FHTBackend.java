@@ -0,0 +1,99 @@
+package org.example.utils;
+
+import ij.process.FHT;
+
+/**
+ * FFT backend built on ImageJ's Hartley transform. Only square power of 2
+ * sizes are supported, so images are padded accordingly.
+ */
+public class FHTBackend implements FFTBackend {
+
+    @Override
+    public int paddedWidth(int width, int height) {
+        return findNextPowerOf2(Math.max(width, height));
+    }
+
+    @Override
+    public int paddedHeight(int width, int height) {
+        return findNextPowerOf2(Math.max(width, height));
+    }
+
+    @Override
+    public void forward(float[] pixels, Spectrum out) {
+        int size = checkSize(out);
+
+        // Transform in place; pixels may be overwritten per the FFTBackend contract
+        FHT fht = acquireFHT(size);
+        try {
+            fht.rc2DFHT(pixels, false, size);
+        } finally {
+            releaseFHT(size, fht);
+        }
+
+        // Recover real and imaginary parts from the even and odd Hartley components
+        float[] data = out.getData();
+        for (int row = 0; row < size; row++) {
+            int base = row * size;
+            int offs = ((size - row) % size) * size;
+            for (int col = 0; col < size; col++) {
+                float a = pixels[base + col];
+                float b = pixels[offs + (size - col) % size];
+                data[2 * (base + col)] = (a + b) * 0.5f;
+                data[2 * (base + col) + 1] = (b - a) * 0.5f;
+            }
+        }
+    }
+
+    @Override
+    public void inverse(Spectrum in, float[] pixels) {
+        int size = checkSize(in);
+        float[] data = in.getData();
+
+        // A real signal's Hartley transform is Re(F) - Im(F)
+        for (int k = 0; k < size * size; k++) {
+            pixels[k] = data[2 * k] - data[2 * k + 1];
+        }
+
+        FHT fht = acquireFHT(size);
+        try {
+            fht.rc2DFHT(pixels, true, size);
+        } finally {
+            releaseFHT(size, fht);
+        }
+    }
+
+    // FHT keeps scratch state between calls, so each instance is borrowed exclusively
+    private FHT acquireFHT(int size) {
+        return FFTPlanCache.getShared().acquireWorkspace(size, size, FHT.class, () -> {
+            FHT fht = new FHT();
+            fht.setShowProgress(false);
+            return fht;
+        });
+    }
+
+    private void releaseFHT(int size, FHT fht) {
+        FFTPlanCache.getShared().releaseWorkspace(size, size, fht);
+    }
+
+    private int checkSize(Spectrum spectrum) {
+        int size = spectrum.getWidth();
+        if (spectrum.getHeight() != size || !FHT.isPowerOf2(size)) {
+            throw new IllegalArgumentException("FHT needs a square power of 2 size, got "
+                    + spectrum.getWidth() + "x" + spectrum.getHeight());
+        }
+        return size;
+    }
+
+    /**
+     * Find the next power of 2 greater than or equal to n
+     * @param n the value to find the next power of 2 for
+     * @return the next power of 2
+     */
+    private static int findNextPowerOf2(int n) {
+        int power = 1;
+        while (power < n) {
+            power *= 2;
+        }
+        return power;
+    }
+}
@@ -0,0 +1,182 @@
+package org.example.utils;
+
+import ij.process.FloatProcessor;
+
+import java.util.Arrays;
+
+/**
+ * Row-major single-precision image backed by one float[]. An image may be a
+ * view into a larger buffer, in which case pixel (x, y) is stored at
+ * offset + y * stride + x.
+ */
+public class FloatImage {
+    private final float[] data;
+    private final int width;
+    private final int height;
+    private final int offset;
+    private final int stride;
+
+    public FloatImage(int width, int height) {
+        this(width, height, new float[width * height]);
+    }
+
+    /**
+     * Wraps a compact row-major buffer without copying
+     */
+    public FloatImage(int width, int height, float[] data) {
+        this(width, height, data, 0, width);
+    }
+
+    /**
+     * Wraps a region of a buffer without copying
+     * @param width image width
+     * @param height image height
+     * @param data backing buffer
+     * @param offset index of pixel (0, 0)
+     * @param stride distance between the starts of consecutive rows
+     */
+    public FloatImage(int width, int height, float[] data, int offset, int stride) {
+        if (width <= 0 || height <= 0 || stride < width || offset < 0
+                || (long) offset + (long) (height - 1) * stride + width > data.length) {
+            throw new IllegalArgumentException("Invalid image layout " + width + "x" + height
+                    + " (offset " + offset + ", stride " + stride + ") for buffer of " + data.length);
+        }
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    /**
+     * Shares the pixel array of a FloatProcessor; changes are visible in both
+     */
+    public static FloatImage wrap(FloatProcessor fp) {
+        return new FloatImage(fp.getWidth(), fp.getHeight(), (float[]) fp.getPixels());
+    }
+
+    public static FloatImage fromArray(float[][] rows) {
+        int height = rows.length;
+        int width = rows[0].length;
+        FloatImage image = new FloatImage(width, height);
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(rows[y], 0, image.data, y * width, width);
+        }
+        return image;
+    }
+
+    public float[][] toArray() {
+        float[][] rows = new float[height][width];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(data, offset + y * stride, rows[y], 0, width);
+        }
+        return rows;
+    }
+
+    /**
+     * @return a FloatProcessor sharing this image's pixels if it is compact, otherwise a copy
+     */
+    public FloatProcessor toFloatProcessor() {
+        FloatImage compact = isCompact() ? this : copy();
+        return new FloatProcessor(width, height, compact.data, null);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public float[] getData() {
+        return data;
+    }
+
+    /**
+     * @return true if the pixels fill the whole backing array without gaps
+     */
+    public boolean isCompact() {
+        return offset == 0 && stride == width && data.length == width * height;
+    }
+
+    public int index(int x, int y) {
+        return offset + y * stride + x;
+    }
+
+    public float get(int x, int y) {
+        return data[offset + y * stride + x];
+    }
+
+    public void set(int x, int y, float value) {
+        data[offset + y * stride + x] = value;
+    }
+
+    /**
+     * @return a window into this image sharing the same pixels
+     */
+    public FloatImage view(int x, int y, int viewWidth, int viewHeight) {
+        if (x < 0 || y < 0 || x + viewWidth > width || y + viewHeight > height) {
+            throw new IllegalArgumentException("View " + viewWidth + "x" + viewHeight + " at (" + x + ", " + y
+                    + ") outside " + width + "x" + height);
+        }
+        return new FloatImage(viewWidth, viewHeight, data, index(x, y), stride);
+    }
+
+    /**
+     * @return a compact copy
+     */
+    public FloatImage copy() {
+        FloatImage copy = new FloatImage(width, height);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    public void copyFrom(FloatImage source) {
+        if (source.width != width || source.height != height) {
+            throw new IllegalArgumentException("Image shape mismatch: " + width + "x" + height
+                    + " vs " + source.width + "x" + source.height);
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(source.data, source.offset + y * source.stride, data, offset + y * stride, width);
+        }
+    }
+
+    public void fill(float value) {
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * stride;
+            Arrays.fill(data, row, row + width, value);
+        }
+    }
+
+    public boolean sameShape(FloatImage other) {
+        return width == other.width && height == other.height;
+    }
+
+    /**
+     * @return true if other has the same shape and bit-identical pixels
+     */
+    public boolean contentEquals(FloatImage other) {
+        if (!sameShape(other)) {
+            return false;
+        }
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * stride;
+            int otherRow = other.offset + y * other.stride;
+            for (int x = 0; x < width; x++) {
+                if (Float.floatToIntBits(data[row + x]) != Float.floatToIntBits(other.data[otherRow + x])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Three-stage read / process / write pipeline for streams of frames.
+ *
+ * Each stage runs on its own thread so reading and writing overlap with
+ * processing. At most maxInFlight frames exist between the start of a read
+ * and the end of the matching write; the reader blocks until the writer
+ * frees a slot. Frames leave the pipeline in the order they were read.
+ */
+public class FramePipeline<F> {
+
+    public interface Source<F> {
+        /**
+         * @return the next frame, or null at the end of the stream
+         */
+        F next() throws Exception;
+    }
+
+    public interface Stage<F> {
+        F apply(F frame) throws Exception;
+    }
+
+    public interface Sink<F> {
+        void accept(F frame) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    private final int maxInFlight;
+
+    public FramePipeline(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Streams every frame of source through process into sink and waits until
+     * the last frame is written. If any stage throws, the other stages are
+     * interrupted and the first failure is rethrown.
+     */
+    public void run(Source<F> source, Stage<F> process, Sink<F> sink) throws Exception {
+        Semaphore slots = new Semaphore(maxInFlight);
+        BlockingQueue<Object> toProcess = new ArrayBlockingQueue<>(maxInFlight + 1);
+        BlockingQueue<Object> toWrite = new ArrayBlockingQueue<>(maxInFlight + 1);
+
+        ExecutorService stages = Executors.newFixedThreadPool(3, r -> {
+            Thread t = new Thread(r, "ECMAD-pipeline");
+            t.setDaemon(true);
+            return t;
+        });
+
+        ExecutorCompletionService<Void> stageResults = new ExecutorCompletionService<>(stages);
+        stageResults.submit(() -> {
+            while (true) {
+                slots.acquire();
+                F frame = source.next();
+                if (frame == null) {
+                    toProcess.put(END);
+                    return null;
+                }
+                toProcess.put(frame);
+            }
+        });
+        stageResults.submit(() -> {
+            while (true) {
+                Object item = toProcess.take();
+                if (item == END) {
+                    toWrite.put(END);
+                    return null;
+                }
+                @SuppressWarnings("unchecked")
+                F frame = (F) item;
+                toWrite.put(process.apply(frame));
+            }
+        });
+        stageResults.submit(() -> {
+            while (true) {
+                Object item = toWrite.take();
+                if (item == END) {
+                    return null;
+                }
+                @SuppressWarnings("unchecked")
+                F frame = (F) item;
+                sink.accept(frame);
+                slots.release();
+            }
+        });
+
+        try {
+            // Wait for all three stages; the first failure stops the others,
+            // which would otherwise stay blocked on the queues
+            for (int i = 0; i < 3; i++) {
+                try {
+                    stageResults.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            stages.shutdownNow();
+        }
+    }
+}
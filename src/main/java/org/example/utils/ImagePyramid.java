@@ -0,0 +1,139 @@
+package org.example.utils;
+
+/**
+ * Resolution pyramid for coarse-to-fine estimation. Level 0 is the input and
+ * each further level halves both dimensions by 2x2 averaging. PSFs move
+ * between levels by resampling about their centroid, so a kernel estimated at
+ * one level seeds the next finer one.
+ */
+public class ImagePyramid {
+
+    private final FloatImage[] levels;
+
+    /**
+     * @param image level 0; shared, not copied
+     * @param maxLevels number of levels wanted, including level 0
+     * @param minSize smallest width or height a level may have
+     */
+    public ImagePyramid(FloatImage image, int maxLevels, int minSize) {
+        int count = 1;
+        int w = image.getWidth(), h = image.getHeight();
+        while (count < maxLevels && (w + 1) / 2 >= minSize && (h + 1) / 2 >= minSize) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+            count++;
+        }
+        levels = new FloatImage[count];
+        levels[0] = image;
+        for (int l = 1; l < count; l++) {
+            levels[l] = downsample(levels[l - 1]);
+        }
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public FloatImage getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Halves both dimensions, rounding up; each output pixel is the mean of its 2x2 block
+     */
+    public static FloatImage downsample(FloatImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        int ow = (width + 1) / 2, oh = (height + 1) / 2;
+        FloatImage result = new FloatImage(ow, oh);
+        float[] in = image.getData();
+        float[] out = result.getData();
+
+        ParallelScheduler.forRange(oh, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int r0 = image.index(0, 2 * y);
+                int r1 = image.index(0, Math.min(height - 1, 2 * y + 1));
+                for (int x = 0; x < ow; x++) {
+                    int x0 = 2 * x, x1 = Math.min(width - 1, 2 * x + 1);
+                    out[y * ow + x] = 0.25f * (in[r0 + x0] + in[r0 + x1] + in[r1 + x0] + in[r1 + x1]);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Size of a centred kernel after scaling its extent by the given factor: odd and at least 3
+     */
+    public static int scaledKernelSize(int size, float scale) {
+        int scaled = Math.round((size - 1) * scale) + 1;
+        scaled |= 1;
+        return Math.max(3, scaled);
+    }
+
+    /**
+     * Resamples a PSF to another pyramid level by bilinear interpolation. The
+     * kernel's centroid lands on the output centre, so a shift that the estimate
+     * absorbed on one level is not scaled up on the next.
+     * @param psf non-negative kernel
+     * @param width output width, odd
+     * @param height output height, odd
+     * @param scale output pixels per input pixel: 0.5 one level coarser, 2 one level finer
+     * @return the non-negative resampled kernel, normalized to sum 1
+     */
+    public static FloatImage resamplePSF(FloatImage psf, int width, int height, float scale) {
+        int kw = psf.getWidth(), kh = psf.getHeight();
+        float cx = kw / 2, cy = kh / 2;
+        double mass = 0, mx = 0, my = 0;
+        for (int i = 0; i < kh; i++) {
+            for (int j = 0; j < kw; j++) {
+                float v = psf.get(j, i);
+                mass += v;
+                mx += v * j;
+                my += v * i;
+            }
+        }
+        if (mass > 0) {
+            cx = (float) (mx / mass);
+            cy = (float) (my / mass);
+        }
+        FloatImage result = new FloatImage(width, height);
+        double sum = 0;
+
+        for (int i = 0; i < height; i++) {
+            float sy = cy + (i - height / 2) / scale;
+            for (int j = 0; j < width; j++) {
+                float sx = cx + (j - width / 2) / scale;
+                float v = Math.max(0f, bilinear(psf, sx, sy));
+                result.set(j, i, v);
+                sum += v;
+            }
+        }
+
+        if (sum > 0) {
+            float norm = (float) (1 / sum);
+            for (int i = 0; i < height; i++) {
+                for (int j = 0; j < width; j++) {
+                    result.set(j, i, result.get(j, i) * norm);
+                }
+            }
+        } else {
+            result.set(width / 2, height / 2, 1f);
+        }
+        return result;
+    }
+
+    // Zero outside the kernel
+    private static float bilinear(FloatImage psf, float x, float y) {
+        int x0 = (int) Math.floor(x), y0 = (int) Math.floor(y);
+        float fx = x - x0, fy = y - y0;
+        return (1 - fy) * ((1 - fx) * tap(psf, x0, y0) + fx * tap(psf, x0 + 1, y0))
+                + fy * ((1 - fx) * tap(psf, x0, y0 + 1) + fx * tap(psf, x0 + 1, y0 + 1));
+    }
+
+    private static float tap(FloatImage psf, int x, int y) {
+        if (x < 0 || y < 0 || x >= psf.getWidth() || y >= psf.getHeight()) {
+            return 0f;
+        }
+        return psf.get(x, y);
+    }
+}
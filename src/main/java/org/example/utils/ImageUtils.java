@@ -1,19 +1,15 @@
 package org.example.utils;
 
-import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
 public class ImageUtils {
 
     /**
-     * Converts an ImageProcessor to a 2D float array
+     * Exposes an ImageProcessor as a FloatImage. FloatProcessor pixels are shared
+     * without copying; other types are converted once by ImageJ.
      */
-    public static float[][] toFloatArray(ImageProcessor ip) {
-        int width = ip.getWidth();
-        int height = ip.getHeight();
-
-        float[][] result = new float[height][width];
+    public static FloatImage toFloatImage(ImageProcessor ip) {
         FloatProcessor fp;
 
         // Convert to FloatProcessor if it's not already
@@ -23,48 +19,32 @@ public class ImageUtils {
             fp = (FloatProcessor) ip;
         }
 
-        // Copy data to the array
-        float[] pixels = (float[]) fp.getPixels();
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                result[y][x] = pixels[y * width + x];
-            }
-        }
-
-        return result;
+        return FloatImage.wrap(fp);
     }
 
     /**
-     * Converts a 2D float array to an ImageProcessor
+     * Converts a FloatImage to an ImageProcessor, sharing its pixels when it is compact
      */
-    public static ImageProcessor toImageProcessor(float[][] array) {
-        int height = array.length;
-        int width = array[0].length;
-
-        FloatProcessor fp = new FloatProcessor(width, height);
-        float[] pixels = (float[]) fp.getPixels();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                pixels[y * width + x] = array[y][x];
-            }
-        }
-
-        return fp;
+    public static ImageProcessor toImageProcessor(FloatImage image) {
+        return image.toFloatProcessor();
     }
 
     /**
-     * Normalizes a float array to the range [0,1]
+     * Normalizes an image to the range [0,1]
      */
-    public static void normalize(float[][] array) {
+    public static void normalize(FloatImage image) {
+        float[] data = image.getData();
+        int width = image.getWidth();
+        int height = image.getHeight();
         float min = Float.MAX_VALUE;
-        float max = Float.MIN_VALUE;
+        float max = -Float.MAX_VALUE;
 
         // Find min and max
-        for (float[] row : array) {
-            for (float val : row) {
-                min = Math.min(min, val);
-                max = Math.max(max, val);
+        for (int y = 0; y < height; y++) {
+            int row = image.index(0, y);
+            for (int x = 0; x < width; x++) {
+                min = Math.min(min, data[row + x]);
+                max = Math.max(max, data[row + x]);
             }
         }
 
@@ -75,10 +55,18 @@ public class ImageUtils {
         }
 
         // Normalize to [0,1]
-        for (int i = 0; i < array.length; i++) {
-            for (int j = 0; j < array[0].length; j++) {
-                array[i][j] = (array[i][j] - min) / range;
+        for (int y = 0; y < height; y++) {
+            int row = image.index(0, y);
+            for (int x = 0; x < width; x++) {
+                data[row + x] = (data[row + x] - min) / range;
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Normalizes a row-major pixel array to the range [0,1]
+     */
+    public static void normalize(float[] pixels) {
+        normalize(new FloatImage(pixels.length, 1, pixels));
+    }
+}
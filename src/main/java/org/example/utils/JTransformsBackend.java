@@ -0,0 +1,173 @@
+package org.example.utils;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.util.Arrays;
+
+/**
+ * FFT backend built on JTransforms. Any size is supported; images are padded
+ * to the next 2/3/5/7-smooth size, for which the mixed-radix kernels are fast.
+ *
+ * Power of two sizes are transformed row by row and column by column with
+ * JTransforms' 1D split-radix kernels and pooled column buffers, so they do not
+ * allocate, and their rows and column blocks are split across the
+ * ParallelScheduler. Other sizes go through JTransforms' 2D mixed-radix
+ * transforms, which allocate scratch on every call and use JTransforms' own
+ * threads.
+ */
+public class JTransformsBackend implements FFTBackend {
+
+    // Columns gathered into one contiguous buffer per pass
+    private static final int COLUMN_BLOCK = 8;
+
+    @Override
+    public int paddedWidth(int width, int height) {
+        return FFTUtils.nextSmoothSize(width);
+    }
+
+    @Override
+    public int paddedHeight(int width, int height) {
+        return FFTUtils.nextSmoothSize(height);
+    }
+
+    @Override
+    public void forward(float[] pixels, Spectrum out) {
+        int width = out.getWidth();
+        int height = out.getHeight();
+        float[] data = out.getData();
+
+        if (!isPowerOf2(width) || !isPowerOf2(height)) {
+            // realForwardFull reads the real input from the first half of the buffer
+            System.arraycopy(pixels, 0, data, 0, width * height);
+            FFTPlanCache.getShared().getFloatPlan(height, width).realForwardFull(data);
+            return;
+        }
+
+        FloatFFT_1D rows = plan1D(width);
+        if (ParallelScheduler.runsInline(height)) {
+            forwardRows(rows, pixels, data, width, 0, height);
+        } else {
+            ParallelScheduler.forRange(height, (start, end) -> forwardRows(rows, pixels, data, width, start, end));
+        }
+
+        // The spectrum of real data is Hermitian, so columns past width / 2 are mirrored
+        int half = width / 2 + 1;
+        transformColumns(data, width, height, Math.min(half, width), false);
+        for (int y = 0; y < height; y++) {
+            int row = 2 * y * width;
+            int mirror = 2 * ((height - y) % height) * width;
+            for (int x = half; x < width; x++) {
+                int m = mirror + 2 * (width - x);
+                data[row + 2 * x] = data[m];
+                data[row + 2 * x + 1] = -data[m + 1];
+            }
+        }
+    }
+
+    @Override
+    public void inverse(Spectrum in, float[] pixels) {
+        int width = in.getWidth();
+        int height = in.getHeight();
+        int n = width * height;
+
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        float[] work = cache.acquireFloatBuffer(height, width);
+        try {
+            System.arraycopy(in.getData(), 0, work, 0, 2 * n);
+            if (isPowerOf2(width) && isPowerOf2(height)) {
+                transformColumns(work, width, height, width, true);
+                FloatFFT_1D rows = plan1D(width);
+                if (ParallelScheduler.runsInline(height)) {
+                    inverseRows(rows, work, width, 0, height);
+                } else {
+                    ParallelScheduler.forRange(height, (start, end) -> inverseRows(rows, work, width, start, end));
+                }
+            } else {
+                cache.getFloatPlan(height, width).complexInverse(work, true);
+            }
+
+            for (int k = 0; k < n; k++) {
+                pixels[k] = work[2 * k];
+            }
+        } finally {
+            cache.releaseFloatBuffer(height, width, work);
+        }
+    }
+
+    private static void forwardRows(FloatFFT_1D plan, float[] pixels, float[] data, int width, int start, int end) {
+        for (int y = start; y < end; y++) {
+            // Each row expands in place to its full complex spectrum. The expansion
+            // skips the imaginary part of the Nyquist bin, so the upper half is cleared.
+            int row = 2 * y * width;
+            System.arraycopy(pixels, y * width, data, row, width);
+            Arrays.fill(data, row + width, row + 2 * width, 0f);
+            plan.realForwardFull(data, row);
+        }
+    }
+
+    private static void inverseRows(FloatFFT_1D plan, float[] data, int width, int start, int end) {
+        for (int y = start; y < end; y++) {
+            plan.complexInverse(data, 2 * y * width, true);
+        }
+    }
+
+    // Complex transforms of columns [0, columns) of an interleaved height x width spectrum
+    private static void transformColumns(float[] data, int width, int height, int columns, boolean inverse) {
+        FloatFFT_1D plan = plan1D(height);
+        int blocks = (columns + COLUMN_BLOCK - 1) / COLUMN_BLOCK;
+        if (ParallelScheduler.runsInline(blocks, 1)) {
+            transformBlocks(plan, data, width, height, columns, inverse, 0, blocks);
+        } else {
+            ParallelScheduler.forRange(blocks, 1, (start, end) ->
+                    transformBlocks(plan, data, width, height, columns, inverse, start, end));
+        }
+    }
+
+    // Column blocks [start, end), each gathered into a pooled contiguous buffer and scattered back
+    private static void transformBlocks(FloatFFT_1D plan, float[] data, int width, int height, int columns,
+                                        boolean inverse, int start, int end) {
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        float[] block = cache.acquireFloatBuffer(height, COLUMN_BLOCK);
+        try {
+            for (int b = start; b < end; b++) {
+                int x0 = b * COLUMN_BLOCK;
+                int count = Math.min(COLUMN_BLOCK, columns - x0);
+                for (int y = 0; y < height; y++) {
+                    int src = 2 * (y * width + x0);
+                    for (int c = 0; c < count; c++) {
+                        block[2 * (c * height + y)] = data[src + 2 * c];
+                        block[2 * (c * height + y) + 1] = data[src + 2 * c + 1];
+                    }
+                }
+                for (int c = 0; c < count; c++) {
+                    if (inverse) {
+                        plan.complexInverse(block, 2 * c * height, true);
+                    } else {
+                        plan.complexForward(block, 2 * c * height);
+                    }
+                }
+                for (int y = 0; y < height; y++) {
+                    int dst = 2 * (y * width + x0);
+                    for (int c = 0; c < count; c++) {
+                        data[dst + 2 * c] = block[2 * (c * height + y)];
+                        data[dst + 2 * c + 1] = block[2 * (c * height + y) + 1];
+                    }
+                }
+            }
+        } finally {
+            cache.releaseFloatBuffer(height, COLUMN_BLOCK, block);
+        }
+    }
+
+    // 1D plans are kept under height 1, next to the 2D plans of single-row images
+    private static FloatFFT_1D plan1D(int n) {
+        FFTPlanCache cache = FFTPlanCache.getShared();
+        FloatFFT_1D plan = cache.findPlan(1, n, FloatFFT_1D.class);
+        return plan != null ? plan
+                : cache.getPlan(1, n, FloatFFT_1D.class, () -> new FloatFFT_1D(n));
+    }
+
+    private static boolean isPowerOf2(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+}
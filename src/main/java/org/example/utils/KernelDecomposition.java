@@ -0,0 +1,194 @@
+package org.example.utils;
+
+import java.util.Arrays;
+
+/**
+ * Low-rank approximation of a 2D kernel as a sum of separable terms,
+ * k(i, j) ~ sum over r of vertical[r][i] * horizontal[r][j], taken from the
+ * singular value decomposition of the kernel. Gaussian and box kernels are
+ * rank 1; measured PSFs are often close to rank 1 or 2.
+ */
+public class KernelDecomposition {
+
+    // Relative Frobenius error below which a kernel is treated as exactly low-rank
+    public static final float DEFAULT_TOLERANCE = 1e-4f;
+
+    private static final int MAX_SWEEPS = 60;
+
+    private final int width;
+    private final int height;
+    private final float[][] vertical;
+    private final float[][] horizontal;
+    private final float error;
+
+    private KernelDecomposition(int width, int height, float[][] vertical, float[][] horizontal, float error) {
+        this.width = width;
+        this.height = height;
+        this.vertical = vertical;
+        this.horizontal = horizontal;
+        this.error = error;
+    }
+
+    /**
+     * Exactly separable kernel vertical x horizontal
+     */
+    public static KernelDecomposition separable(float[] vertical, float[] horizontal) {
+        return new KernelDecomposition(horizontal.length, vertical.length,
+                new float[][]{vertical.clone()}, new float[][]{horizontal.clone()}, 0f);
+    }
+
+    /**
+     * Smallest-rank approximation whose relative Frobenius error is at most tolerance
+     * @param kernel the kernel to decompose
+     * @param tolerance allowed ||k - approximation|| / ||k||
+     * @return the decomposition; full rank with zero error if no smaller rank fits
+     */
+    public static KernelDecomposition of(FloatImage kernel, float tolerance) {
+        int m = kernel.getHeight();
+        int n = kernel.getWidth();
+
+        // One-sided Jacobi: rotate columns of a until they are orthogonal, accumulating v
+        double[][] a = new double[m][n];
+        double[][] v = new double[n][n];
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                a[i][j] = kernel.get(j, i);
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            v[j][j] = 1;
+        }
+
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            boolean rotated = false;
+            for (int p = 0; p < n - 1; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    double alpha = 0, beta = 0, gamma = 0;
+                    for (int i = 0; i < m; i++) {
+                        alpha += a[i][p] * a[i][p];
+                        beta += a[i][q] * a[i][q];
+                        gamma += a[i][p] * a[i][q];
+                    }
+                    if (gamma == 0 || Math.abs(gamma) <= 1e-15 * Math.sqrt(alpha * beta)) {
+                        continue;
+                    }
+                    rotated = true;
+                    double zeta = (beta - alpha) / (2 * gamma);
+                    double t = Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+                    if (zeta == 0) t = 1;
+                    double c = 1 / Math.sqrt(1 + t * t);
+                    double s = c * t;
+                    for (int i = 0; i < m; i++) {
+                        double ap = a[i][p], aq = a[i][q];
+                        a[i][p] = c * ap - s * aq;
+                        a[i][q] = s * ap + c * aq;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        double vp = v[i][p], vq = v[i][q];
+                        v[i][p] = c * vp - s * vq;
+                        v[i][q] = s * vp + c * vq;
+                    }
+                }
+            }
+            if (!rotated) break;
+        }
+
+        // Column norms are the singular values; a[:, j] = sigma_j * u_j
+        double[] sigma = new double[n];
+        Integer[] order = new Integer[n];
+        double total = 0;
+        for (int j = 0; j < n; j++) {
+            double sum = 0;
+            for (int i = 0; i < m; i++) {
+                sum += a[i][j] * a[i][j];
+            }
+            sigma[j] = Math.sqrt(sum);
+            total += sum;
+            order[j] = j;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(sigma[y], sigma[x]));
+
+        int maxRank = Math.min(m, n);
+        int rank = maxRank;
+        double dropped = 0;
+        if (total > 0) {
+            // Energy of the terms beyond each candidate rank, accumulated from the smallest
+            double[] tail = new double[maxRank + 1];
+            for (int r = maxRank - 1; r >= 0; r--) {
+                tail[r] = tail[r + 1] + sigma[order[r]] * sigma[order[r]];
+            }
+            for (int r = 1; r <= maxRank; r++) {
+                if (Math.sqrt(tail[r] / total) <= tolerance) {
+                    rank = r;
+                    dropped = tail[r];
+                    break;
+                }
+            }
+        } else {
+            rank = 1;
+        }
+
+        float[][] vertical = new float[rank][m];
+        float[][] horizontal = new float[rank][n];
+        for (int r = 0; r < rank; r++) {
+            int j = order[r];
+            for (int i = 0; i < m; i++) {
+                vertical[r][i] = (float) a[i][j];
+            }
+            for (int i = 0; i < n; i++) {
+                horizontal[r][i] = (float) v[i][j];
+            }
+        }
+        float error = total > 0 ? (float) Math.sqrt(dropped / total) : 0f;
+        return new KernelDecomposition(n, m, vertical, horizontal, error);
+    }
+
+    public int getRank() {
+        return vertical.length;
+    }
+
+    /**
+     * @return relative Frobenius error of the approximation
+     */
+    public float getError() {
+        return error;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float[] getVertical(int term) {
+        return vertical[term];
+    }
+
+    public float[] getHorizontal(int term) {
+        return horizontal[term];
+    }
+
+    /**
+     * @return true if the separable passes need fewer taps per pixel than the 2D kernel
+     */
+    public boolean isCheaperThanDirect() {
+        return getRank() * (width + height) < width * height;
+    }
+
+    /**
+     * @return the approximated kernel as a 2D image
+     */
+    public FloatImage toKernel() {
+        FloatImage kernel = new FloatImage(width, height);
+        for (int r = 0; r < getRank(); r++) {
+            for (int i = 0; i < height; i++) {
+                for (int j = 0; j < width; j++) {
+                    kernel.set(j, i, kernel.get(j, i) + vertical[r][i] * horizontal[r][j]);
+                }
+            }
+        }
+        return kernel;
+    }
+}
@@ -2,77 +2,182 @@ package org.example.utils;
 
 public class MatrixUtils {
 
-    public static float[][] deepCopy(float[][] input) {
-        int height = input.length;
-        int width = input[0].length;
-        float[][] copy = new float[height][width];
-        for (int i = 0; i < height; i++) {
-            System.arraycopy(input[i], 0, copy[i], 0, width);
-        }
-        return copy;
+    public static FloatImage deepCopy(FloatImage input) {
+        return input.copy();
+    }
+
+    public static FloatImage subtract(FloatImage a, FloatImage b) {
+        FloatImage result = new FloatImage(a.getWidth(), a.getHeight());
+        subtract(a, b, result);
+        return result;
     }
 
-    public static float[][] subtract(float[][] a, float[][] b) {
-        int height = a.length;
-        int width = a[0].length;
-        float[][] result = new float[height][width];
+    /**
+     * result = a - b elementwise; result may be a or b
+     */
+    public static void subtract(FloatImage a, FloatImage b, FloatImage result) {
+        int height = a.getHeight();
+        int width = a.getWidth();
+        float[] ad = a.getData(), bd = b.getData(), rd = result.getData();
         for (int i = 0; i < height; i++) {
+            int ar = a.index(0, i), br = b.index(0, i), rr = result.index(0, i);
             for (int j = 0; j < width; j++) {
-                result[i][j] = a[i][j] - b[i][j];
+                rd[rr + j] = ad[ar + j] - bd[br + j];
             }
         }
+    }
+
+    /**
+     * Correlates image with kernel (zero outside the image) using the strategy
+     * ConvolutionPlanner estimates to be cheapest
+     */
+    public static FloatImage convolve(FloatImage image, FloatImage kernel) {
+        return ConvolutionPlanner.convolve(image, kernel, SeparableConvolver.Boundary.ZERO);
+    }
+
+    public static FloatImage convolveDirect(FloatImage image, FloatImage kernel) {
+        return convolveDirect(image, kernel, SeparableConvolver.Boundary.ZERO);
+    }
+
+    /**
+     * Correlates image with kernel tap by tap
+     */
+    public static FloatImage convolveDirect(FloatImage image, FloatImage kernel, SeparableConvolver.Boundary boundary) {
+        FloatImage result = new FloatImage(image.getWidth(), image.getHeight());
+        convolveDirect(image, kernel, boundary, result);
         return result;
     }
 
-    public static float[][] convolve(float[][] image, float[][] kernel) {
-        int ih = image.length, iw = image[0].length;
-        int kh = kernel.length, kw = kernel[0].length;
-        int padH = kh / 2, padW = kw / 2;
-        float[][] result = new float[ih][iw];
+    /**
+     * Correlates image with kernel tap by tap into result
+     * @param result output of the same size as image; must not share pixels with it
+     */
+    public static void convolveDirect(FloatImage image, FloatImage kernel, SeparableConvolver.Boundary boundary,
+                                      FloatImage result) {
+        boolean clamp = boundary == SeparableConvolver.Boundary.CLAMP;
+        int ih = image.getHeight();
+        if (ParallelScheduler.runsInline(ih)) {
+            convolveRows(image, kernel, clamp, result, 0, ih);
+        } else {
+            ParallelScheduler.forRange(ih, (start, end) -> convolveRows(image, kernel, clamp, result, start, end));
+        }
+    }
 
-        for (int i = 0; i < ih; i++) {
+    private static void convolveRows(FloatImage image, FloatImage kernel, boolean clamp, FloatImage result,
+                                     int start, int end) {
+        int ih = image.getHeight(), iw = image.getWidth();
+        int kh = kernel.getHeight(), kw = kernel.getWidth();
+        int padH = kh / 2, padW = kw / 2;
+        float[] in = image.getData(), k = kernel.getData(), out = result.getData();
+        for (int i = start; i < end; i++) {
             for (int j = 0; j < iw; j++) {
                 float sum = 0;
                 for (int ki = 0; ki < kh; ki++) {
+                    int ii = i + ki - padH;
+                    if (ii < 0 || ii >= ih) {
+                        if (!clamp) continue;
+                        ii = Math.max(0, Math.min(ih - 1, ii));
+                    }
+                    int imageRow = image.index(0, ii);
+                    int kernelRow = kernel.index(0, ki);
                     for (int kj = 0; kj < kw; kj++) {
-                        int ii = i + ki - padH;
                         int jj = j + kj - padW;
-                        if (ii >= 0 && ii < ih && jj >= 0 && jj < iw) {
-                            sum += image[ii][jj] * kernel[ki][kj];
+                        if (jj >= 0 && jj < iw) {
+                            sum += in[imageRow + jj] * k[kernelRow + kj];
+                        } else if (clamp) {
+                            sum += in[imageRow + Math.max(0, Math.min(iw - 1, jj))] * k[kernelRow + kj];
                         }
                     }
                 }
-                result[i][j] = sum;
+                out[result.index(j, i)] = sum;
             }
         }
-        return result;
     }
 
-    public static float[][] convolveTranspose(float[][] image, float[][] kernel) {
-        int kh = kernel.length;
-        int kw = kernel[0].length;
-        float[][] flipped = new float[kh][kw];
+    public static FloatImage convolveTranspose(FloatImage image, FloatImage kernel) {
+        int kh = kernel.getHeight();
+        int kw = kernel.getWidth();
+        FloatImage flipped = new FloatImage(kw, kh);
 
         for (int i = 0; i < kh; i++) {
             for (int j = 0; j < kw; j++) {
-                flipped[i][j] = kernel[kh - 1 - i][kw - 1 - j];
+                flipped.set(j, i, kernel.get(kw - 1 - j, kh - 1 - i));
             }
         }
 
         return convolve(image, flipped);
     }
 
-    public static void normalize(float[][] matrix) {
+    public static FloatImage correlate(FloatImage image, FloatImage residual, int kh, int kw) {
+        FloatImage result = new FloatImage(kw, kh);
+        correlate(image, residual, result);
+        return result;
+    }
+
+    /**
+     * Correlation of image with residual at the kernel offsets of result, centred on result's middle
+     */
+    public static void correlate(FloatImage image, FloatImage residual, FloatImage result) {
+        int kh = result.getHeight();
+        if (ParallelScheduler.runsInline(kh, 1)) {
+            correlateRows(image, residual, result, 0, kh);
+        } else {
+            ParallelScheduler.forRange(kh, 1, (start, end) -> correlateRows(image, residual, result, start, end));
+        }
+    }
+
+    // Kernel rows [start, end) of the correlation
+    private static void correlateRows(FloatImage image, FloatImage residual, FloatImage result, int start, int end) {
+        int ih = image.getHeight(), iw = image.getWidth();
+        int kh = result.getHeight(), kw = result.getWidth();
+        int padH = kh / 2, padW = kw / 2;
+        float[] in = image.getData(), res = residual.getData(), out = result.getData();
+        for (int ki = start; ki < end; ki++) {
+            for (int kj = 0; kj < kw; kj++) {
+                float sum = 0;
+                for (int i = 0; i < ih; i++) {
+                    int ii = i + ki - padH;
+                    if (ii < 0 || ii >= ih) continue;
+                    int imageRow = image.index(0, ii);
+                    int residualRow = residual.index(0, i);
+                    for (int j = 0; j < iw; j++) {
+                        int jj = j + kj - padW;
+                        if (jj >= 0 && jj < iw) {
+                            sum += in[imageRow + jj] * res[residualRow + j];
+                        }
+                    }
+                }
+                out[result.index(kj, ki)] = sum;
+            }
+        }
+    }
+
+    public static double sumOfSquares(FloatImage matrix) {
+        float[] data = matrix.getData();
+        double sum = 0;
+        for (int i = 0; i < matrix.getHeight(); i++) {
+            int row = matrix.index(0, i);
+            for (int j = 0; j < matrix.getWidth(); j++) {
+                sum += (double) data[row + j] * data[row + j];
+            }
+        }
+        return sum;
+    }
+
+    public static void normalize(FloatImage matrix) {
+        float[] data = matrix.getData();
         float sum = 0;
-        for (float[] row : matrix) {
-            for (float val : row) {
-                sum += val;
+        for (int i = 0; i < matrix.getHeight(); i++) {
+            int row = matrix.index(0, i);
+            for (int j = 0; j < matrix.getWidth(); j++) {
+                sum += data[row + j];
             }
         }
         if (sum == 0) return;
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                matrix[i][j] /= sum;
+        for (int i = 0; i < matrix.getHeight(); i++) {
+            int row = matrix.index(0, i);
+            for (int j = 0; j < matrix.getWidth(); j++) {
+                data[row + j] /= sum;
             }
         }
     }
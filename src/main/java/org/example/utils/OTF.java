@@ -0,0 +1,96 @@
+package org.example.utils;
+
+/**
+ * Precomputed optical transfer function of a PSF. A copy of the spatial PSF
+ * lets callers check, once per run, that the transform still describes their
+ * kernel; within a run, callers track their own kernel updates instead.
+ */
+public class OTF {
+
+    private final Spectrum transfer;
+    private final FloatImage psf;
+
+    /**
+     * Wraps an already transformed PSF
+     * @param psf the spatial PSF the spectrum was computed from
+     * @param transfer the PSF's spectrum, centre at the origin
+     */
+    public OTF(FloatImage psf, Spectrum transfer) {
+        this.transfer = transfer;
+        this.psf = psf.copy();
+    }
+
+    /**
+     * @param psf PSF with its centre at (width / 2, height / 2)
+     * @param width transform width
+     * @param height transform height
+     * @return the OTF at the given transform size
+     */
+    public static OTF fromPSF(FloatImage psf, int width, int height) {
+        return new OTF(psf, FFTUtils.psfToSpectrum(psf, width, height));
+    }
+
+    /**
+     * @param psf PSF with its centre at (width / 2, height / 2)
+     * @param imageWidth width of the images it will be applied to
+     * @param imageHeight height of the images it will be applied to
+     * @return the OTF at the current backend's transform size for that image
+     */
+    public static OTF forImage(FloatImage psf, int imageWidth, int imageHeight) {
+        FFTBackend backend = FFTUtils.getBackend();
+        return fromPSF(psf,
+                backend.paddedWidth(imageWidth, imageHeight),
+                backend.paddedHeight(imageWidth, imageHeight));
+    }
+
+    /**
+     * Returns the cached OTF if it still describes the given PSF, otherwise a new one
+     * @param cached previously computed OTF, may be null
+     * @param psf the current PSF
+     * @param imageWidth width of the images it will be applied to
+     * @param imageHeight height of the images it will be applied to
+     * @return an OTF for psf
+     */
+    public static OTF update(OTF cached, FloatImage psf, int imageWidth, int imageHeight) {
+        if (cached != null && cached.matches(psf, imageWidth, imageHeight)) {
+            return cached;
+        }
+        return forImage(psf, imageWidth, imageHeight);
+    }
+
+    /**
+     * @return true if this OTF was computed from a PSF equal to psf at the transform
+     * size the current backend uses for the given image size
+     */
+    public boolean matches(FloatImage psf, int imageWidth, int imageHeight) {
+        FFTBackend backend = FFTUtils.getBackend();
+        return psf.sameShape(this.psf)
+                && transfer.getWidth() == backend.paddedWidth(imageWidth, imageHeight)
+                && transfer.getHeight() == backend.paddedHeight(imageWidth, imageHeight)
+                && psf.contentEquals(this.psf);
+    }
+
+    public static int hashPSF(FloatImage psf) {
+        float[] data = psf.getData();
+        int hash = 1;
+        for (int y = 0; y < psf.getHeight(); y++) {
+            int row = psf.index(0, y);
+            for (int x = 0; x < psf.getWidth(); x++) {
+                hash = 31 * hash + Float.floatToIntBits(data[row + x]);
+            }
+        }
+        return hash;
+    }
+
+    public Spectrum getTransfer() {
+        return transfer;
+    }
+
+    public int getWidth() {
+        return transfer.getWidth();
+    }
+
+    public int getHeight() {
+        return transfer.getHeight();
+    }
+}
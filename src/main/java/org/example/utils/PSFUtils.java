@@ -2,8 +2,9 @@ package org.example.utils;
 
 public class PSFUtils {
 
-    public static float[][] createGaussianPSF(int width, int height, float sigma) {
-        float[][] psf = new float[height][width];
+    public static FloatImage createGaussianPSF(int width, int height, float sigma) {
+        FloatImage psf = new FloatImage(width, height);
+        float[] data = psf.getData();
         int cx = width / 2;
         int cy = height / 2;
         float sum = 0;
@@ -13,39 +14,70 @@ public class PSFUtils {
                 float dx = x - cx;
                 float dy = y - cy;
                 float val = (float) Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma));
-                psf[y][x] = val;
+                data[y * width + x] = val;
                 sum += val;
             }
         }
 
         // Normalize
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                psf[y][x] /= sum;
-            }
+        for (int i = 0; i < data.length; i++) {
+            data[i] /= sum;
         }
 
         return psf;
     }
 
-    public static float[][] createDeltaPSF(int width, int height) {
-        float[][] psf = new float[height][width];
-        psf[height / 2][width / 2] = 1.0f;
-        return psf;
+    public static void normalize(FloatImage psf) {
+        MatrixUtils.normalize(psf);
     }
 
-    public static void normalize(float[][] psf) {
-        float sum = 0f;
-        for (int y = 0; y < psf.length; y++) {
-            for (int x = 0; x < psf[0].length; x++) {
-                sum += psf[y][x];
+    /**
+     * Smallest radius r such that the centred (2r+1)x(2r+1) window holds the given fraction of the PSF energy
+     */
+    public static int supportRadius(FloatImage psf, float energyFraction) {
+        int height = psf.getHeight();
+        int width = psf.getWidth();
+        int cy = height / 2;
+        int cx = width / 2;
+        int maxRadius = Math.max(Math.max(cy, height - 1 - cy), Math.max(cx, width - 1 - cx));
+
+        double total = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                total += psf.get(x, y);
             }
         }
-        if (sum == 0) return;
-        for (int y = 0; y < psf.length; y++) {
-            for (int x = 0; x < psf[0].length; x++) {
-                psf[y][x] /= sum;
+        if (total <= 0) return 0;
+
+        double inside = 0;
+        for (int r = 0; r <= maxRadius; r++) {
+            // Add the ring at Chebyshev distance r
+            for (int y = Math.max(0, cy - r); y <= Math.min(height - 1, cy + r); y++) {
+                boolean edgeRow = y == cy - r || y == cy + r;
+                for (int x = Math.max(0, cx - r); x <= Math.min(width - 1, cx + r); x++) {
+                    if (edgeRow || x == cx - r || x == cx + r) {
+                        inside += psf.get(x, y);
+                    }
+                }
+            }
+            if (inside >= energyFraction * total) {
+                return r;
             }
         }
+        return maxRadius;
+    }
+
+    /**
+     * Crops a centred PSF to a (2r+1)x(2r+1) window (clipped to the PSF) and renormalizes it
+     */
+    public static FloatImage crop(FloatImage psf, int radius) {
+        int cy = psf.getHeight() / 2;
+        int cx = psf.getWidth() / 2;
+        int top = Math.max(0, cy - radius), bottom = Math.min(psf.getHeight() - 1, cy + radius);
+        int left = Math.max(0, cx - radius), right = Math.min(psf.getWidth() - 1, cx + radius);
+
+        FloatImage cropped = psf.view(left, top, right - left + 1, bottom - top + 1).copy();
+        normalize(cropped);
+        return cropped;
     }
 }
@@ -0,0 +1,140 @@
+package org.example.utils;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Work-stealing scheduler for the row loops of the deconvolution stages.
+ *
+ * Work is always cut into bands of a fixed number of rows, independent of the
+ * thread count. Stages that only write their own rows, or that write one partial
+ * result per band and combine the partials in band order, therefore give
+ * identical results for any parallelism level.
+ */
+public class ParallelScheduler {
+
+    // Rows per band
+    public static final int DEFAULT_GRAIN = 16;
+
+    private static volatile ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public interface RangeTask {
+        void run(int start, int end);
+    }
+
+    /**
+     * Sets the number of worker threads; 1 runs everything on the calling thread.
+     * Work already running finishes on the old workers; calls that read the old
+     * pool just before the swap are moved to the new one instead of being rejected.
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        ForkJoinPool old = pool;
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+        old.shutdown();
+    }
+
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Tells whether forRange would run every band of count indices on the calling thread.
+     * Stages on the allocation-free iteration path then call their band method directly
+     * rather than creating a capturing task for it.
+     */
+    public static boolean runsInline(int count, int grain) {
+        return count <= grain || pool.getParallelism() == 1;
+    }
+
+    public static boolean runsInline(int count) {
+        return runsInline(count, DEFAULT_GRAIN);
+    }
+
+    public static void forRange(int count, RangeTask task) {
+        forRange(count, DEFAULT_GRAIN, task);
+    }
+
+    /**
+     * Runs task over [0, count) split into bands of grain indices
+     * @param count number of indices, usually rows
+     * @param grain band size
+     * @param task invoked once per band with its [start, end) range
+     */
+    public static void forRange(int count, int grain, RangeTask task) {
+        ForkJoinPool p = pool;
+        if (count <= grain || p.getParallelism() == 1) {
+            for (int start = 0; start < count; start += grain) {
+                task.run(start, Math.min(count, start + grain));
+            }
+            return;
+        }
+        invoke(p, task, count, grain);
+    }
+
+    /**
+     * Runs independent tasks in parallel and waits for all of them
+     */
+    public static void runAll(Runnable... tasks) {
+        forRange(tasks.length, 1, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                tasks[i].run();
+            }
+        });
+    }
+
+    public static void runAll(List<? extends Runnable> tasks) {
+        runAll(tasks.toArray(new Runnable[0]));
+    }
+
+    private static void invoke(ForkJoinPool p, RangeTask task, int count, int grain) {
+        // Nested calls from a worker join the current computation instead of blocking it
+        if (ForkJoinTask.getPool() == p) {
+            new RangeAction(task, 0, count, grain).invoke();
+            return;
+        }
+        try {
+            p.invoke(new RangeAction(task, 0, count, grain));
+        } catch (RejectedExecutionException e) {
+            // setParallelism shut p down before the action was queued, so none of it has run
+            ForkJoinPool current = pool;
+            if (current == p || !p.isShutdown()) {
+                throw e;
+            }
+            invoke(current, task, count, grain);
+        }
+    }
+
+    private static class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeTask task;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        RangeAction(RangeTask task, int start, int end, int grain) {
+            this.task = task;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            int bands = (end - start + grain - 1) / grain;
+            if (bands <= 1) {
+                task.run(start, end);
+                return;
+            }
+            int mid = start + (bands / 2) * grain;
+            invokeAll(new RangeAction(task, start, mid, grain), new RangeAction(task, mid, end, grain));
+        }
+    }
+}
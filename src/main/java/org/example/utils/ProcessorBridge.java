@@ -0,0 +1,203 @@
+package org.example.utils;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Moves pixels between ImageJ processors and the engine's FloatImage buffers.
+ * Float input is shared without copying; 8-bit, 16-bit and RGB input is
+ * converted in a single pass, and results are normalized straight into the
+ * output processor.
+ */
+public class ProcessorBridge {
+
+    /**
+     * @param ip input processor
+     * @return one image per channel: three for RGB, one otherwise
+     */
+    public static FloatImage[] toChannels(ImageProcessor ip) {
+        return toChannels(ip, null);
+    }
+
+    /**
+     * Like {@link #toChannels(ImageProcessor)}, but converts into the given
+     * compact buffers when their count and size fit, e.g. when streaming frames
+     * @param ip input processor
+     * @param reuse channels returned by an earlier call, may be null
+     * @return one image per channel: three for RGB, one otherwise
+     */
+    public static FloatImage[] toChannels(ImageProcessor ip, FloatImage[] reuse) {
+        int width = ip.getWidth();
+        int height = ip.getHeight();
+        if (ip instanceof FloatProcessor) {
+            return new FloatImage[]{FloatImage.wrap((FloatProcessor) ip)};
+        }
+
+        int channels = ip instanceof ColorProcessor ? 3 : 1;
+        FloatImage[] out = fits(reuse, channels, width, height) ? reuse : new FloatImage[channels];
+        for (int c = 0; c < channels; c++) {
+            if (out[c] == null) {
+                out[c] = new FloatImage(width, height);
+            }
+        }
+
+        if (ip instanceof ColorProcessor) {
+            int[] pixels = (int[]) ip.getPixels();
+            float[] r = out[0].getData(), g = out[1].getData(), b = out[2].getData();
+            ParallelScheduler.forRange(height, (start, end) -> {
+                for (int i = start * width; i < end * width; i++) {
+                    int c = pixels[i];
+                    r[i] = (c >> 16) & 0xff;
+                    g[i] = (c >> 8) & 0xff;
+                    b[i] = c & 0xff;
+                }
+            });
+            return out;
+        }
+
+        float[] gray = out[0].getData();
+        if (ip instanceof ByteProcessor) {
+            byte[] pixels = (byte[]) ip.getPixels();
+            ParallelScheduler.forRange(height, (start, end) -> {
+                for (int i = start * width; i < end * width; i++) {
+                    gray[i] = pixels[i] & 0xff;
+                }
+            });
+        } else if (ip instanceof ShortProcessor) {
+            short[] pixels = (short[]) ip.getPixels();
+            ParallelScheduler.forRange(height, (start, end) -> {
+                for (int i = start * width; i < end * width; i++) {
+                    gray[i] = pixels[i] & 0xffff;
+                }
+            });
+        } else {
+            return new FloatImage[]{FloatImage.wrap((FloatProcessor) ip.convertToFloat())};
+        }
+        return out;
+    }
+
+    private static boolean fits(FloatImage[] images, int count, int width, int height) {
+        if (images == null || images.length != count) {
+            return false;
+        }
+        for (FloatImage image : images) {
+            if (image == null || !image.isCompact() || image.getWidth() != width || image.getHeight() != height) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the processor results are written into: RGB for RGB input, 32-bit otherwise
+     */
+    public static ImageProcessor createOutput(ImageProcessor input) {
+        if (input instanceof ColorProcessor) {
+            return new ColorProcessor(input.getWidth(), input.getHeight());
+        }
+        return new FloatProcessor(input.getWidth(), input.getHeight());
+    }
+
+    /**
+     * Normalizes result to [0,1] and writes it into one channel of out in the same pass.
+     * Float output receives [0,1]; integer output is scaled to its full range.
+     * @param result engine output, same size as out
+     * @param out output processor
+     * @param channel 0, 1 or 2 for red, green or blue when out is RGB; ignored otherwise
+     */
+    public static void writeNormalized(FloatImage result, ImageProcessor out, int channel) {
+        int width = result.getWidth();
+        int height = result.getHeight();
+        float[] data = result.getData();
+
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int y = 0; y < height; y++) {
+            int row = result.index(0, y);
+            for (int x = 0; x < width; x++) {
+                min = Math.min(min, data[row + x]);
+                max = Math.max(max, data[row + x]);
+            }
+        }
+
+        float range = max - min;
+        if (range < 0.00001f) {
+            // Avoid division by near-zero; values are written unscaled
+            min = 0;
+            range = 1;
+        }
+        writeScaled(result, out, channel, min, 1f / range);
+    }
+
+    /**
+     * Writes (result - offset) * scale into one channel of out without normalizing.
+     * Float output receives the values as they are; integer output maps [0,1] to
+     * its full range and clips values outside it.
+     * @param result engine output, same size as out
+     * @param out output processor
+     * @param channel 0, 1 or 2 for red, green or blue when out is RGB; ignored otherwise
+     */
+    public static void writeScaled(FloatImage result, ImageProcessor out, int channel, float offset, float scale) {
+        int width = result.getWidth();
+        int height = result.getHeight();
+        float[] data = result.getData();
+
+        Object pixels = out.getPixels();
+        if (pixels instanceof float[]) {
+            float[] values = (float[]) pixels;
+            ParallelScheduler.forRange(height, (start, end) -> {
+                for (int y = start; y < end; y++) {
+                    int row = result.index(0, y);
+                    int o = y * width;
+                    for (int x = 0; x < width; x++) {
+                        values[o + x] = (data[row + x] - offset) * scale;
+                    }
+                }
+            });
+        } else if (pixels instanceof int[]) {
+            int[] rgb = (int[]) pixels;
+            int shift = 16 - 8 * channel;
+            int keep = ~(0xff << shift);
+            ParallelScheduler.forRange(height, (start, end) -> {
+                for (int y = start; y < end; y++) {
+                    int row = result.index(0, y);
+                    int o = y * width;
+                    for (int x = 0; x < width; x++) {
+                        int level = toLevel((data[row + x] - offset) * scale, 255);
+                        rgb[o + x] = 0xff000000 | (rgb[o + x] & keep) | (level << shift);
+                    }
+                }
+            });
+        } else if (pixels instanceof byte[]) {
+            byte[] levels = (byte[]) pixels;
+            ParallelScheduler.forRange(height, (start, end) -> {
+                for (int y = start; y < end; y++) {
+                    int row = result.index(0, y);
+                    int o = y * width;
+                    for (int x = 0; x < width; x++) {
+                        levels[o + x] = (byte) toLevel((data[row + x] - offset) * scale, 255);
+                    }
+                }
+            });
+        } else {
+            short[] levels = (short[]) pixels;
+            ParallelScheduler.forRange(height, (start, end) -> {
+                for (int y = start; y < end; y++) {
+                    int row = result.index(0, y);
+                    int o = y * width;
+                    for (int x = 0; x < width; x++) {
+                        levels[o + x] = (short) toLevel((data[row + x] - offset) * scale, 65535);
+                    }
+                }
+            });
+        }
+    }
+
+    private static int toLevel(float v, int maxLevel) {
+        int level = (int) (v * maxLevel + 0.5f);
+        return Math.max(0, Math.min(maxLevel, level));
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.utils;
+
+/**
+ * Applies a KernelDecomposition as horizontal then vertical 1D passes per
+ * rank term, costing rank * (kw + kh) taps per pixel instead of kw * kh.
+ *
+ * The result matches MatrixUtils.convolve: out(y, x) = sum of
+ * k(i, j) * in(y + i - kh / 2, x + j - kw / 2). Border pixels take a separate
+ * path so the interior loops carry no border checks.
+ */
+public class SeparableConvolver {
+
+    public enum Boundary {
+        // Pixels outside the image are zero
+        ZERO,
+        // Pixels outside the image repeat the nearest edge pixel
+        CLAMP
+    }
+
+    public static FloatImage convolve(FloatImage image, KernelDecomposition kernel, Boundary boundary) {
+        FloatImage result = new FloatImage(image.getWidth(), image.getHeight());
+        convolve(image, kernel, boundary, result);
+        return result;
+    }
+
+    /**
+     * @param image input, not modified
+     * @param kernel decomposed kernel
+     * @param boundary how pixels outside the image are treated
+     * @param result output of the same size as image; must not share pixels with it
+     */
+    public static void convolve(FloatImage image, KernelDecomposition kernel, Boundary boundary, FloatImage result) {
+        convolve(image, kernel, boundary, result, new FloatImage(image.getWidth(), image.getHeight()));
+    }
+
+    /**
+     * Like {@link #convolve(FloatImage, KernelDecomposition, Boundary, FloatImage)} with a
+     * caller-owned buffer for the horizontal pass, so repeated calls allocate nothing
+     * @param temp scratch image of the same size as image
+     */
+    public static void convolve(FloatImage image, KernelDecomposition kernel, Boundary boundary, FloatImage result,
+                                FloatImage temp) {
+        result.fill(0);
+
+        for (int r = 0; r < kernel.getRank(); r++) {
+            horizontal(image, kernel.getHorizontal(r), boundary, temp);
+            vertical(temp, kernel.getVertical(r), boundary, result);
+        }
+    }
+
+    /**
+     * 1D pass along rows: out(y, x) = sum of taps[j] * in(y, x + j - taps.length / 2)
+     */
+    public static void horizontal(FloatImage image, float[] taps, Boundary boundary, FloatImage out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int n = taps.length;
+        int pad = n / 2;
+        float[] in = image.getData();
+        float[] o = out.getData();
+        // Outputs in [first, last) read only pixels inside the row
+        int first = Math.min(pad, width);
+        int last = Math.max(first, width - (n - 1 - pad));
+
+        ParallelScheduler.forRange(height, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int row = image.index(0, y);
+                int outRow = out.index(0, y);
+                for (int x = first; x < last; x++) {
+                    int base = row + x - pad;
+                    float sum = 0;
+                    for (int t = 0; t < n; t++) {
+                        sum += taps[t] * in[base + t];
+                    }
+                    o[outRow + x] = sum;
+                }
+                for (int x = 0; x < first; x++) {
+                    o[outRow + x] = borderTap(in, row, width, x, taps, boundary);
+                }
+                for (int x = last; x < width; x++) {
+                    o[outRow + x] = borderTap(in, row, width, x, taps, boundary);
+                }
+            }
+        });
+    }
+
+    private static float borderTap(float[] in, int row, int width, int x, float[] taps, Boundary boundary) {
+        int pad = taps.length / 2;
+        float sum = 0;
+        for (int t = 0; t < taps.length; t++) {
+            int sx = x + t - pad;
+            if (sx < 0 || sx >= width) {
+                if (boundary == Boundary.ZERO) continue;
+                sx = Math.max(0, Math.min(width - 1, sx));
+            }
+            sum += taps[t] * in[row + sx];
+        }
+        return sum;
+    }
+
+    /**
+     * 1D pass along columns, accumulated into out: out(y, x) += sum of taps[i] * in(y + i - taps.length / 2, x)
+     */
+    public static void vertical(FloatImage image, float[] taps, Boundary boundary, FloatImage out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int n = taps.length;
+        int pad = n / 2;
+        float[] in = image.getData();
+        float[] o = out.getData();
+
+        // Whole rows are combined at a time, so only the source row index depends on the boundary
+        ParallelScheduler.forRange(height, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int outRow = out.index(0, y);
+                for (int t = 0; t < n; t++) {
+                    int sy = y + t - pad;
+                    if (sy < 0 || sy >= height) {
+                        if (boundary == Boundary.ZERO) continue;
+                        sy = Math.max(0, Math.min(height - 1, sy));
+                    }
+                    float w = taps[t];
+                    int inRow = image.index(0, sy);
+                    for (int x = 0; x < width; x++) {
+                        o[outRow + x] += w * in[inRow + x];
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,179 @@
+package org.example.utils;
+
+/**
+ * Complex 2D spectrum stored as a single row-major float array of
+ * interleaved (real, imaginary) pairs. All arithmetic is done in place.
+ */
+public class Spectrum {
+    private final int width;
+    private final int height;
+    private final float[] data;
+
+    public Spectrum(int width, int height) {
+        this(width, height, new float[2 * width * height]);
+    }
+
+    /**
+     * Wraps an existing interleaved buffer without copying
+     * @param width number of frequency columns
+     * @param height number of frequency rows
+     * @param data interleaved buffer of at least 2 * width * height floats
+     */
+    public Spectrum(int width, int height, float[] data) {
+        if (data.length < 2 * width * height) {
+            throw new IllegalArgumentException("Spectrum buffer too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float[] getData() {
+        return data;
+    }
+
+    public float getReal(int x, int y) {
+        return data[2 * (y * width + x)];
+    }
+
+    public float getImag(int x, int y) {
+        return data[2 * (y * width + x) + 1];
+    }
+
+    public void set(int x, int y, float real, float imag) {
+        int k = 2 * (y * width + x);
+        data[k] = real;
+        data[k + 1] = imag;
+    }
+
+    public Spectrum copy() {
+        Spectrum copy = new Spectrum(width, height);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    public void copyFrom(Spectrum other) {
+        checkShape(other);
+        System.arraycopy(other.data, 0, data, 0, 2 * width * height);
+    }
+
+    /**
+     * this = this * other
+     */
+    public void multiply(Spectrum other) {
+        checkShape(other);
+        setProduct(this, other, false);
+    }
+
+    /**
+     * this = this * conj(other)
+     */
+    public void conjugateMultiply(Spectrum other) {
+        checkShape(other);
+        setProduct(this, other, true);
+    }
+
+    /**
+     * this = a * b, or a * conj(b) when conjugate is set; either may be this itself
+     */
+    public void setProduct(Spectrum a, Spectrum b, boolean conjugate) {
+        checkShape(a);
+        checkShape(b);
+        float[] p = a.data, q = b.data;
+        float sign = conjugate ? -1f : 1f;
+        if (ParallelScheduler.runsInline(height)) {
+            product(p, q, sign, data, width, 0, height);
+        } else {
+            ParallelScheduler.forRange(height, (start, end) -> product(p, q, sign, data, width, start, end));
+        }
+    }
+
+    public void subtract(Spectrum other) {
+        checkShape(other);
+        float[] o = other.data;
+        int n = 2 * width * height;
+        for (int k = 0; k < n; k++) {
+            data[k] -= o[k];
+        }
+    }
+
+    public void conjugate() {
+        int n = 2 * width * height;
+        for (int k = 1; k < n; k += 2) {
+            data[k] = -data[k];
+        }
+    }
+
+    /**
+     * @return the sum of |z|^2 over all bins, width * height times the energy of the inverse transform
+     */
+    public double energy() {
+        int n = 2 * width * height;
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += (double) data[k] * data[k];
+        }
+        return sum;
+    }
+
+    /**
+     * Applies the Wiener filter in place: this = this * conj(H) / (|H|^2 + nsr)
+     * @param otf the transfer function H
+     * @param noiseToSignalRatio regularization added to |H|^2
+     */
+    public void wienerFilter(Spectrum otf, float noiseToSignalRatio) {
+        wienerFilter(otf, noiseToSignalRatio, false);
+    }
+
+    /**
+     * Same as wienerFilter, or this = this * H / (|H|^2 + nsr) when correlated is set, which
+     * inverts a correlation with the PSF (this * conj(H)) rather than a convolution
+     */
+    public void wienerFilter(Spectrum otf, float noiseToSignalRatio, boolean correlated) {
+        checkShape(otf);
+        float[] h = otf.data;
+        float sign = correlated ? -1f : 1f;
+        if (ParallelScheduler.runsInline(height)) {
+            wiener(data, h, sign, noiseToSignalRatio, width, 0, height);
+        } else {
+            ParallelScheduler.forRange(height, (start, end) ->
+                    wiener(data, h, sign, noiseToSignalRatio, width, start, end));
+        }
+    }
+
+    // out = p * q over rows [start, end), with q's imaginary part scaled by sign; out may be p or q
+    private static void product(float[] p, float[] q, float sign, float[] out, int width, int start, int end) {
+        for (int k = 2 * start * width; k < 2 * end * width; k += 2) {
+            float re = p[k], im = p[k + 1];
+            float c = q[k], d = sign * q[k + 1];
+            out[k] = re * c - im * d;
+            out[k + 1] = re * d + im * c;
+        }
+    }
+
+    // data * conj(H) / (|H|^2 + nsr) over rows [start, end), with H's imaginary part scaled by sign
+    private static void wiener(float[] data, float[] h, float sign, float nsr, int width, int start, int end) {
+        for (int k = 2 * start * width; k < 2 * end * width; k += 2) {
+            float a = data[k], b = data[k + 1];
+            float c = h[k], d = sign * h[k + 1];
+            float scale = 1f / (c * c + d * d + nsr);
+            data[k] = (a * c + b * d) * scale;
+            data[k + 1] = (b * c - a * d) * scale;
+        }
+    }
+
+    private void checkShape(Spectrum other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Spectrum shape mismatch: " + width + "x" + height
+                    + " vs " + other.width + "x" + other.height);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.example.core;
+
+import org.example.DeconvolutionProgressListener;
+import org.example.utils.FloatImage;
+import org.example.utils.PSFUtils;
+import org.example.utils.ParallelScheduler;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the bytes the calling thread allocates between the starts of
+ * consecutive iterations, once the processor's workspace, plans and pools are
+ * warm. Runs at parallelism 1, where the whole iteration stays on this thread;
+ * fork-join tasks allocate by design. The frames are power of 2 sized, so every
+ * transform takes JTransformsBackend's row-column path; its mixed-radix path
+ * for other sizes allocates scratch inside JTransforms.
+ */
+public class ECMADProcessorAllocationTest {
+
+    private static final int ITERATIONS = 8;
+    private static final int WARM_UP_FRAMES = 3;
+
+    private int parallelism;
+
+    @Before
+    public void setUp() {
+        parallelism = ParallelScheduler.getParallelism();
+        ParallelScheduler.setParallelism(1);
+    }
+
+    @After
+    public void tearDown() {
+        ParallelScheduler.setParallelism(parallelism);
+    }
+
+    @Test
+    public void directKernelIterationsAllocateNothing() {
+        // The PSF update descends in the image domain
+        assertSteadyStateAllocation(256, 9);
+    }
+
+    @Test
+    public void spectralKernelIterationsAllocateNothing() {
+        // The PSF update descends in the frequency domain and the forward model runs as FFTs
+        assertSteadyStateAllocation(512, 21);
+    }
+
+    private static void assertSteadyStateAllocation(int size, int kernelSize) {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long thread = Thread.currentThread().getId();
+
+        FloatImage observed = TestScenes.blurred(size, kernelSize, kernelSize / 6f);
+        FloatImage initialPSF = PSFUtils.createGaussianPSF(kernelSize, kernelSize, kernelSize / 12f);
+
+        // Never converges, so every call runs all of its iterations
+        EntropyController controller = new EntropyController() {
+            @Override
+            public boolean hasConverged() {
+                return false;
+            }
+        };
+        ECMADProcessor processor = new ECMADProcessor(new WienerDeconvolver(), new TVRegularizer(),
+                new BlindDeconvolver(), controller, ITERATIONS, 0f);
+
+        long[] marks = new long[ITERATIONS];
+        int[] count = new int[1];
+        processor.setProgressListener(new DeconvolutionProgressListener() {
+            @Override
+            public void onIterationStart(int iteration) {
+                marks[count[0]++] = threads.getThreadAllocatedBytes(thread);
+            }
+
+            @Override
+            public void onIterationComplete(int iteration, float error) {
+            }
+        });
+
+        for (int frame = 0; frame <= WARM_UP_FRAMES; frame++) {
+            count[0] = 0;
+            processor.process(observed, initialPSF);
+        }
+
+        assertEquals(ITERATIONS, count[0]);
+        for (int i = 1; i < ITERATIONS; i++) {
+            assertEquals("bytes allocated by iteration " + (i - 1) + " of a " + size + "x" + size
+                    + " frame with a " + kernelSize + "x" + kernelSize + " PSF", 0, marks[i] - marks[i - 1]);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        Assume.assumeTrue("Thread allocation counters are not available",
+                ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Thread allocation counters are not supported",
+                threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        assertTrue(threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+}
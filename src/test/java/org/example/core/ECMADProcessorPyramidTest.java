@@ -0,0 +1,112 @@
+package org.example.core;
+
+import org.example.utils.FloatImage;
+import org.example.utils.ImagePyramid;
+import org.example.utils.PSFUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the coarse pyramid levels on a frame blurred with a wide Gaussian,
+ * starting from a narrow one, and checks where the kernel ends up
+ */
+public class ECMADProcessorPyramidTest {
+
+    private static final int SIZE = 256;
+    private static final int KERNEL_SIZE = 9;
+    private static final int ITERATIONS = 10;
+
+    @Test
+    public void coarseLevelsMoveTheKernelTowardsTheBlur() {
+        FloatImage truth = PSFUtils.createGaussianPSF(KERNEL_SIZE, KERNEL_SIZE, 2.25f);
+        FloatImage initial = PSFUtils.createGaussianPSF(KERNEL_SIZE, KERNEL_SIZE, 0.75f);
+        FloatImage observed = TestScenes.blurred(SIZE, truth);
+
+        ECMADProcessor processor = new ECMADProcessor(new WienerDeconvolver(), new TVRegularizer(),
+                new BlindDeconvolver(), new EntropyController(), ITERATIONS, 0f);
+        ImagePyramid pyramid = new ImagePyramid(observed, 3, ECMADProcessor.MIN_PYRAMID_SIZE);
+        assertEquals(3, pyramid.getLevelCount());
+        FloatImage estimated = processor.estimateCoarsePSF(pyramid, initial);
+
+        // Both coarse levels iterate, and every iteration changes the kernel without throwing it around
+        int[] iterations = new int[3];
+        for (IterationMetrics metrics : processor.getMetrics()) {
+            iterations[metrics.getLevel()]++;
+            assertTrue("PSF change " + metrics.getPSFChange() + " in iteration " + metrics.getIteration(),
+                    metrics.getPSFChange() > 0 && metrics.getPSFChange() < 0.25f);
+        }
+        assertEquals(0, iterations[0]);
+        assertTrue("level 2 ran " + iterations[2] + " iterations", iterations[2] > 1);
+        assertTrue("level 1 ran " + iterations[1] + " iterations", iterations[1] > 1);
+
+        // The kernel carried to full resolution is centred and far closer to the blur's width
+        double[] moments = moments(estimated);
+        double initialError = Math.abs(moments(initial)[0] - moments(truth)[0]);
+        double error = Math.abs(moments[0] - moments(truth)[0]);
+        assertTrue("width " + moments[0] + " vs " + moments(truth)[0], error < 0.5 * initialError);
+        assertEquals(0, moments[1], 0.5);
+        assertEquals(0, moments[2], 0.5);
+    }
+
+    @Test
+    public void warmFramesOnlyRunTheFullResolutionRefinement() {
+        FloatImage initial = PSFUtils.createGaussianPSF(KERNEL_SIZE, KERNEL_SIZE, 0.75f);
+        FloatImage observed = TestScenes.blurred(SIZE, KERNEL_SIZE, 2.25f);
+
+        // Never converges, so every run is as long as its limits allow
+        EntropyController controller = new EntropyController() {
+            @Override
+            public boolean hasConverged() {
+                return false;
+            }
+        };
+        ECMADProcessor processor = new ECMADProcessor(new WienerDeconvolver(), new TVRegularizer(),
+                new BlindDeconvolver(), controller, ITERATIONS, 0f);
+        processor.setPyramid(3, 2);
+        processor.setWarmStart(true);
+
+        processor.process(observed, initial);
+        int[] cold = iterationsPerLevel(processor);
+        processor.process(observed, initial);
+        int[] warm = iterationsPerLevel(processor);
+
+        assertEquals(2, cold[0]);
+        assertTrue("cold frame ran " + cold[1] + " and " + cold[2] + " coarse iterations", cold[1] > 0 && cold[2] > 0);
+        // The warm frame starts from the carried PSF, skips the pyramid and stops after the refinement
+        assertEquals(0, warm[1] + warm[2]);
+        assertEquals(2, warm[0]);
+        assertTrue("warm frame ran " + processor.getIterationsRun() + " of " + ITERATIONS + " iterations",
+                processor.getIterationsRun() < ITERATIONS);
+    }
+
+    private static int[] iterationsPerLevel(ECMADProcessor processor) {
+        int[] iterations = new int[3];
+        for (IterationMetrics metrics : processor.getMetrics()) {
+            iterations[metrics.getLevel()]++;
+        }
+        return iterations;
+    }
+
+    // Spread per axis about the centroid, then the centroid's offset from the kernel centre
+    private static double[] moments(FloatImage psf) {
+        double mass = 0, mx = 0, my = 0;
+        for (int i = 0; i < psf.getHeight(); i++) {
+            for (int j = 0; j < psf.getWidth(); j++) {
+                mass += psf.get(j, i);
+                mx += psf.get(j, i) * j;
+                my += psf.get(j, i) * i;
+            }
+        }
+        mx /= mass;
+        my /= mass;
+        double variance = 0;
+        for (int i = 0; i < psf.getHeight(); i++) {
+            for (int j = 0; j < psf.getWidth(); j++) {
+                variance += psf.get(j, i) * ((j - mx) * (j - mx) + (i - my) * (i - my));
+            }
+        }
+        return new double[]{Math.sqrt(variance / mass / 2), mx - psf.getWidth() / 2, my - psf.getHeight() / 2};
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.core;
+
+import org.example.utils.FloatImage;
+import org.example.utils.ParallelScheduler;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the controller's entropy against a HashMap count of every 1/255
+ * level, for ranges on both sides of EntropyController.MAX_BINS
+ */
+public class EntropyControllerTest {
+
+    private static final int SIZE = 512;
+
+    @Test
+    public void normalizedEstimateMatchesExactCount() {
+        FloatImage image = randomImage(new Random(3), 1f);
+        assertEquals(exactEntropy(image), new EntropyController().computeEntropy(image), 1e-4f);
+    }
+
+    @Test
+    public void wideRangeEstimateMatchesExactCount() {
+        // Unnormalized 16-bit values span about 16.7M levels, far more than MAX_BINS
+        FloatImage image = randomImage(new Random(5), 65535f);
+        assertTrue((long) (65535f * 255) > EntropyController.MAX_BINS);
+        float expected = exactEntropy(image);
+        assertEquals(expected, new EntropyController().computeEntropy(image), 1e-4f);
+
+        int parallelism = ParallelScheduler.getParallelism();
+        try {
+            ParallelScheduler.setParallelism(1);
+            assertEquals(expected, new EntropyController().computeEntropy(image), 1e-4f);
+        } finally {
+            ParallelScheduler.setParallelism(parallelism);
+        }
+    }
+
+    @Test
+    public void wideRangeSamplingMatchesExactCountOfSampledPixels() {
+        FloatImage image = randomImage(new Random(9), 65535f);
+        FloatImage sampled = new FloatImage((SIZE + 2) / 3, (SIZE + 2) / 3);
+        for (int y = 0; y < sampled.getHeight(); y++) {
+            for (int x = 0; x < sampled.getWidth(); x++) {
+                sampled.set(x, y, image.get(3 * x, 3 * y));
+            }
+        }
+        EntropyController controller = new EntropyController();
+        controller.setSamplingStride(3);
+        assertEquals(exactEntropy(sampled), controller.computeEntropy(image), 1e-4f);
+    }
+
+    // Smooth ramp plus noise, so levels repeat as well as spread out
+    private static FloatImage randomImage(Random random, float scale) {
+        FloatImage image = new FloatImage(SIZE, SIZE);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                float ramp = (x + y) / (2f * SIZE);
+                image.set(x, y, scale * Math.min(1f, ramp * 0.8f + 0.2f * random.nextFloat()));
+            }
+        }
+        return image;
+    }
+
+    // The per-level HashMap count the controller replaced
+    private static float exactEntropy(FloatImage image) {
+        Map<Integer, Integer> histogram = new HashMap<>();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int level = (int) (image.get(x, y) * 255);
+                histogram.put(level, histogram.getOrDefault(level, 0) + 1);
+            }
+        }
+        double total = image.getWidth() * image.getHeight();
+        double entropy = 0;
+        for (int count : histogram.values()) {
+            double p = count / total;
+            entropy -= p * (Math.log(p) / Math.log(2));
+        }
+        return (float) entropy;
+    }
+}
@@ -0,0 +1,44 @@
+package org.example.core;
+
+import org.example.utils.ConvolutionPlanner;
+import org.example.utils.FloatImage;
+import org.example.utils.PSFUtils;
+import org.example.utils.SeparableConvolver;
+
+import java.util.Random;
+
+/**
+ * Synthetic frames shared by the processor tests
+ */
+final class TestScenes {
+
+    private TestScenes() {
+    }
+
+    /**
+     * Random flat rectangles on a black background, so a blur has edges to be estimated from
+     */
+    static FloatImage rectangles(int size) {
+        Random random = new Random(42);
+        FloatImage sharp = new FloatImage(size, size);
+        for (int n = 0; n < size * size / 128; n++) {
+            int w = 1 + random.nextInt(16), h = 1 + random.nextInt(16);
+            sharp.view(random.nextInt(size - w), random.nextInt(size - h), w, h).fill(0.1f + 0.8f * random.nextFloat());
+        }
+        return sharp;
+    }
+
+    /**
+     * The rectangles scene blurred with a psf, clamping at the borders
+     */
+    static FloatImage blurred(int size, FloatImage psf) {
+        return ConvolutionPlanner.convolve(rectangles(size), psf, SeparableConvolver.Boundary.CLAMP);
+    }
+
+    /**
+     * The rectangles scene blurred with a Gaussian of the given size and sigma
+     */
+    static FloatImage blurred(int size, int kernelSize, float sigma) {
+        return blurred(size, PSFUtils.createGaussianPSF(kernelSize, kernelSize, sigma));
+    }
+}
@@ -0,0 +1,34 @@
+package org.example.core;
+
+import org.example.utils.FloatImage;
+import org.example.utils.MatrixUtils;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class WienerDeconvolverTest {
+
+    @Test
+    public void offCentrePSFDoesNotShiftTheEstimate() {
+        int size = 64;
+        Random random = new Random(1);
+        FloatImage sharp = new FloatImage(size, size);
+        for (int i = 0; i < size * size; i++) {
+            sharp.getData()[i] = random.nextFloat();
+        }
+        // Moves every pixel one to the left under MatrixUtils.convolve
+        FloatImage psf = new FloatImage(5, 5);
+        psf.set(3, 2, 1f);
+
+        FloatImage estimate = new WienerDeconvolver().deconvolve(MatrixUtils.convolve(sharp, psf), psf);
+
+        // Away from the borders the shift is undone exactly, up to the regularization
+        for (int y = 8; y < size - 8; y++) {
+            for (int x = 8; x < size - 8; x++) {
+                assertEquals("pixel " + x + "," + y, sharp.get(x, y), estimate.get(x, y), 0.05f);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.utils;
+
+import org.jtransforms.fft.FloatFFT_2D;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the row-column transforms of power of 2 sizes against JTransforms' 2D transforms
+ */
+public class JTransformsBackendTest {
+
+    private static final int[][] SHAPES = {{2, 2}, {16, 64}, {64, 16}, {128, 128}};
+
+    @Test
+    public void forwardMatchesTwoDimensionalTransform() {
+        JTransformsBackend backend = new JTransformsBackend();
+        Random random = new Random(7);
+        for (int[] shape : SHAPES) {
+            int width = shape[0], height = shape[1];
+            Spectrum spectrum = new Spectrum(width, height);
+            // The second pass reuses the spectrum, so stale values left in it would show up
+            for (int pass = 0; pass < 2; pass++) {
+                float[] pixels = randomPixels(random, width * height);
+                float[] expected = new float[2 * width * height];
+                System.arraycopy(pixels, 0, expected, 0, pixels.length);
+                new FloatFFT_2D(height, width).realForwardFull(expected);
+
+                backend.forward(pixels, spectrum);
+                assertClose(width + "x" + height, expected, spectrum.getData(), 1e-4f * width * height);
+            }
+        }
+    }
+
+    @Test
+    public void inverseRestoresPixels() {
+        JTransformsBackend backend = new JTransformsBackend();
+        Random random = new Random(11);
+        for (int[] shape : SHAPES) {
+            int width = shape[0], height = shape[1];
+            float[] pixels = randomPixels(random, width * height);
+            Spectrum spectrum = new Spectrum(width, height);
+            float[] restored = new float[width * height];
+
+            backend.forward(pixels, spectrum);
+            backend.inverse(spectrum, restored);
+            assertClose(width + "x" + height, pixels, restored, 1e-5f);
+        }
+    }
+
+    private static float[] randomPixels(Random random, int n) {
+        float[] pixels = new float[n];
+        for (int i = 0; i < n; i++) {
+            pixels[i] = random.nextFloat();
+        }
+        return pixels;
+    }
+
+    private static void assertClose(String shape, float[] expected, float[] actual, float tolerance) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(shape + " at " + i, expected[i], actual[i], tolerance);
+        }
+    }
+}